@@ -0,0 +1,425 @@
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.imageio.ImageIO;
+
+import org.opencv.core.Core;
+
+/**
+ * Runs every pipeline in Pipelines over images/src and checks the detections
+ * against images/expected.txt and the time per frame against
+ * images/timing.txt.
+ *
+ * From the project directory:
+ *   java Regression          check (exits 1 on failure)
+ *   java Regression record   record the results of the pipelines that ran
+ *
+ * Detections don't depend on the machine, so expected.txt is checked in. A
+ * pipeline with nothing in it fails, since it isn't protected by anything,
+ * unless -Dregression.allowUnrecorded is set. Times only compare on the
+ * machine they were recorded on, so timing.txt is kept out of git and times
+ * are only checked once it exists; until then the run says so. Recording only
+ * replaces the results of the pipelines that ran, a machine without OpenCV
+ * keeps the OpenCV pipelines' results.
+ *
+ * Tolerances can be changed with -Dregression.centerTolerance and
+ * -Dregression.sizeTolerance (pixels), -Dregression.timeBudget (how much
+ * slower than recorded a pipeline may get, 0.25 = 25%) and
+ * -Dregression.timeSlack (milliseconds per image a pipeline may get slower
+ * on top of the budget, so timer and scheduler noise on fast pipelines
+ * can't fail the suite).
+ *
+ * Every harness project links this folder in as harness-src, the project's
+ * own pipelines are in its Pipelines.
+ */
+public class Regression {
+
+	static final String SRC_FOLDER = "images/src";
+	static final String EXPECTED_PATH = "images/expected.txt";
+	static final String TIMING_PATH = "images/timing.txt";
+
+	static final double CENTER_TOLERANCE = Double.parseDouble(System.getProperty("regression.centerTolerance", "4"));
+	static final double SIZE_TOLERANCE = Double.parseDouble(System.getProperty("regression.sizeTolerance", "8"));
+	static final double TIME_BUDGET = Double.parseDouble(System.getProperty("regression.timeBudget", "0.25"));
+	static final double TIME_SLACK = Double.parseDouble(System.getProperty("regression.timeSlack", "0.5"));
+	static final boolean ALLOW_UNRECORDED = !System.getProperty("regression.allowUnrecorded", "false").equals("false"); // bare -D counts
+
+	static final int WARMUP_ROUNDS = 3; // over the whole corpus, before anything is timed
+	static final int TIMING_ROUNDS = 7;
+	static final double MIN_ROUND_MILLIS = 20; // calls per round are batched until a round takes this long
+
+	/**
+	 * One way of finding targets in an image.
+	 */
+	static abstract class Pipeline {
+		final String name;
+		final boolean needsOpenCV;
+
+		Pipeline(String name) {
+			this(name, true);
+		}
+
+		Pipeline(String name, boolean needsOpenCV) {
+			this.name = name;
+			this.needsOpenCV = needsOpenCV;
+		}
+
+		// Decode the image (not timed)
+		abstract void load(String path);
+
+		// Process the loaded image, returning {x, y, width, height} per target
+		// slot, or null where nothing was found
+		abstract int[][] process();
+	}
+
+	// Decodes an image into packed BGR bytes, the same layout as an 8UC3 Mat
+	static BufferedImage readBGR(String path) {
+		try {
+			BufferedImage src = ImageIO.read(new File(path));
+			BufferedImage bgr = new BufferedImage(src.getWidth(), src.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+			bgr.getGraphics().drawImage(src, 0, 0, null);
+			return bgr;
+		} catch (IOException e) {
+			throw new RuntimeException("Could not read " + path, e);
+		}
+	}
+
+	static class Result {
+		String pipeline, image;
+		double millis;
+		int[][] boxes;
+
+		String key() {
+			return pipeline + "\t" + image;
+		}
+
+		String boxesToString() {
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < boxes.length; i++) {
+				if (i > 0) {
+					sb.append(';');
+				}
+				int[] b = boxes[i];
+				sb.append(b == null ? "-" : b[0] + "," + b[1] + "," + b[2] + "," + b[3]);
+			}
+			return sb.toString();
+		}
+
+		static int[][] parseBoxes(String field) {
+			String[] slots = field.split(";");
+			int[][] boxes = new int[slots.length][];
+			for (int i = 0; i < slots.length; i++) {
+				if (!slots[i].equals("-")) {
+					String[] v = slots[i].split(",");
+					boxes[i] = new int[] { Integer.parseInt(v[0]), Integer.parseInt(v[1]),
+							Integer.parseInt(v[2]), Integer.parseInt(v[3]) };
+				}
+			}
+			return boxes;
+		}
+	}
+
+	static List<Result> run(List<Pipeline> pipelines, File[] files) {
+		List<Result> results = new ArrayList<Result>();
+
+		for (Pipeline p : pipelines) {
+			// Warm up over every image first, so the JIT has compiled the paths
+			// all of them take before the first one is timed
+			for (int round = 0; round < WARMUP_ROUNDS; round++) {
+				for (File f : files) {
+					p.load(f.getPath());
+					p.process();
+				}
+			}
+
+			for (File f : files) {
+				p.load(f.getPath());
+
+				// Batch enough calls that a round is well above timer resolution
+				int calls = 0;
+				int[][] boxes = null;
+				long start = System.nanoTime();
+				while (calls == 0 || (System.nanoTime() - start) / 1e6 < MIN_ROUND_MILLIS) {
+					boxes = p.process();
+					calls++;
+				}
+
+				// Fastest round, noise (GC, other processes, descheduling) only
+				// ever adds time
+				double fastest = Double.MAX_VALUE;
+				for (int i = 0; i < TIMING_ROUNDS; i++) {
+					start = System.nanoTime();
+					for (int j = 0; j < calls; j++) {
+						p.process();
+					}
+					fastest = Math.min(fastest, (System.nanoTime() - start) / 1e6 / calls);
+				}
+
+				Result r = new Result();
+				r.pipeline = p.name;
+				r.image = f.getName();
+				r.millis = fastest;
+				r.boxes = boxes;
+				results.add(r);
+			}
+		}
+
+		return results;
+	}
+
+	static int checkDetections(List<Result> results, Map<String, Result> expected) {
+		int failures = 0;
+
+		// A pipeline nobody has recorded yet fails once, not once per image
+		Set<String> recorded = new HashSet<String>();
+		for (Result e : expected.values()) {
+			recorded.add(e.pipeline);
+		}
+		Set<String> unrecorded = new HashSet<String>();
+
+		for (Result r : results) {
+			if (!recorded.contains(r.pipeline)) {
+				if (unrecorded.add(r.pipeline)) {
+					if (ALLOW_UNRECORDED) {
+						System.out.println("SKIP " + r.pipeline + ": no expected detections, allowed by -Dregression.allowUnrecorded");
+					} else {
+						System.out.println("FAIL " + r.pipeline + ": no expected detections, run 'Regression record'"
+								+ " (or -Dregression.allowUnrecorded to skip it)");
+						failures++;
+					}
+				}
+				continue;
+			}
+
+			Result e = expected.get(r.key());
+			if (e == null) {
+				System.out.println("FAIL " + r.key() + ": no expected result, run 'Regression record'");
+				failures++;
+				continue;
+			}
+
+			String error = compare(r.boxes, e.boxes);
+			if (error != null) {
+				System.out.println("FAIL " + r.key() + ": " + error);
+				failures++;
+			}
+		}
+
+		return failures;
+	}
+
+	static int checkTiming(List<Result> results, Map<String, Result> timing) {
+		int failures = 0;
+		Map<String, double[]> totals = new LinkedHashMap<String, double[]>(); // {actual ms, recorded ms, images}
+		Set<String> untimed = new HashSet<String>();
+
+		for (Result r : results) {
+			Result t = timing.get(r.key());
+			System.out.println(String.format("%-16s %-40s %8.2f ms (recorded %s)", r.pipeline, r.image,
+					r.millis, t == null ? "-" : String.format("%.2f ms", t.millis)));
+			if (t == null) {
+				if (untimed.add(r.pipeline)) {
+					System.out.println("WARNING " + r.pipeline + ": images without a recorded time, their speed is NOT checked");
+				}
+				continue;
+			}
+
+			double[] total = totals.get(r.pipeline);
+			if (total == null) {
+				total = new double[3];
+				totals.put(r.pipeline, total);
+			}
+			total[0] += r.millis;
+			total[1] += t.millis;
+			total[2]++;
+		}
+
+		// Time is compared over the whole corpus, single images are too noisy
+		for (Map.Entry<String, double[]> entry : totals.entrySet()) {
+			double[] total = entry.getValue();
+			double allowed = total[1] * (1 + TIME_BUDGET) + TIME_SLACK * total[2];
+			System.out.println(String.format("%s: %.2f ms total, %+.1f%% vs recorded (allowed %.2f ms)",
+					entry.getKey(), total[0], (total[0] / total[1] - 1) * 100, allowed));
+			if (total[0] > allowed) {
+				System.out.println("FAIL " + entry.getKey() + ": slower than the "
+						+ (TIME_BUDGET * 100) + "% + " + TIME_SLACK + " ms per image time budget");
+				failures++;
+			}
+		}
+
+		return failures;
+	}
+
+	static String compare(int[][] actual, int[][] expected) {
+		if (actual.length != expected.length) {
+			return "expected " + expected.length + " targets, got " + actual.length;
+		}
+
+		for (int i = 0; i < actual.length; i++) {
+			int[] a = actual[i], e = expected[i];
+			if (a == null && e == null) {
+				continue;
+			}
+			if (a == null || e == null) {
+				return "target " + i + (a == null ? " not found" : " found but not expected");
+			}
+
+			double dx = Math.abs((a[0] + a[2] / 2.0) - (e[0] + e[2] / 2.0));
+			double dy = Math.abs((a[1] + a[3] / 2.0) - (e[1] + e[3] / 2.0));
+			if (dx > CENTER_TOLERANCE || dy > CENTER_TOLERANCE) {
+				return "target " + i + " center moved by (" + dx + ", " + dy + ")";
+			}
+			if (Math.abs(a[2] - e[2]) > SIZE_TOLERANCE || Math.abs(a[3] - e[3]) > SIZE_TOLERANCE) {
+				return "target " + i + " is " + a[2] + "x" + a[3] + ", expected " + e[2] + "x" + e[3];
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Reads expected.txt (pipeline, image, boxes) or timing.txt (pipeline,
+	 * image, millis).
+	 *
+	 * @return the results by key, or null if the file doesn't exist
+	 */
+	static Map<String, Result> read(String path, boolean timing) throws IOException {
+		if (!new File(path).isFile()) {
+			return null;
+		}
+
+		Map<String, Result> results = new LinkedHashMap<String, Result>();
+		BufferedReader reader = new BufferedReader(new FileReader(path));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] fields = line.split("\t");
+				Result r = new Result();
+				r.pipeline = fields[0];
+				r.image = fields[1];
+				if (timing) {
+					r.millis = Double.parseDouble(fields[2]);
+				} else {
+					r.boxes = Result.parseBoxes(fields[2]);
+				}
+				results.put(r.key(), r);
+			}
+		} finally {
+			reader.close();
+		}
+		return results;
+	}
+
+	/**
+	 * Replaces the recorded results of the pipelines that ran, keeping the
+	 * rest of the file.
+	 */
+	static void record(String path, boolean timing, List<Result> results) throws IOException {
+		Map<String, Result> merged = new TreeMap<String, Result>();
+		Map<String, Result> old = read(path, timing);
+		if (old != null) {
+			Set<String> ran = new HashSet<String>();
+			for (Result r : results) {
+				ran.add(r.pipeline);
+			}
+			for (Result r : old.values()) {
+				if (!ran.contains(r.pipeline)) {
+					merged.put(r.key(), r);
+				}
+			}
+		}
+		for (Result r : results) {
+			merged.put(r.key(), r);
+		}
+
+		PrintWriter writer = new PrintWriter(new FileWriter(path));
+		try {
+			writer.println(timing ? "# pipeline\timage\tmillis per frame on this machine"
+					: "# pipeline\timage\tx,y,width,height per target (- for none)");
+			for (Result r : merged.values()) {
+				writer.println(r.key() + "\t" + (timing ? String.format("%.3f", r.millis) : r.boxesToString()));
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		// Load the native library, without it only the pure Java pipelines run
+		List<Pipeline> pipelines = Pipelines.all();
+		try {
+			System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+		} catch (UnsatisfiedLinkError e) {
+			System.out.println("OpenCV not available, running pure Java pipelines only");
+			for (int i = pipelines.size() - 1; i >= 0; i--) {
+				if (pipelines.get(i).needsOpenCV) {
+					pipelines.remove(i);
+				}
+			}
+		}
+
+		boolean record = args.length > 0 && args[0].equals("record");
+
+		File[] files = new File(SRC_FOLDER).listFiles();
+		Arrays.sort(files);
+		List<File> images = new ArrayList<File>();
+		for (File f : files) {
+			if (f.isFile()) {
+				images.add(f);
+			}
+		}
+
+		List<Result> results = run(pipelines, images.toArray(new File[images.size()]));
+
+		if (record) {
+			record(EXPECTED_PATH, false, results);
+			record(TIMING_PATH, true, results);
+			System.out.println("Recorded " + results.size() + " results to " + EXPECTED_PATH + " and " + TIMING_PATH);
+			return;
+		}
+
+		Map<String, Result> expected = read(EXPECTED_PATH, false);
+		Map<String, Result> timing = read(TIMING_PATH, true);
+		if (expected == null) {
+			System.out.println("No " + EXPECTED_PATH + ", run 'Regression record'");
+			System.exit(1);
+		}
+
+		int failures = checkDetections(results, expected);
+		if (timing != null) {
+			failures += checkTiming(results, timing);
+		}
+
+		System.out.println();
+		if (failures > 0) {
+			System.out.println("REGRESSION FAILED: " + failures + " failures");
+			System.exit(1);
+		}
+		if (timing == null) {
+			// Easy to miss above the verdict, timing.txt is never checked in
+			System.out.println("********************************************************************");
+			System.out.println("WARNING: no " + TIMING_PATH + " on this machine, times were NOT checked.");
+			System.out.println("Run 'Regression record' on a known good build to start checking them.");
+			System.out.println("********************************************************************");
+			System.out.println("REGRESSION PASSED (detections only)");
+			return;
+		}
+		System.out.println("REGRESSION PASSED");
+	}
+}
@@ -0,0 +1,235 @@
+package org.usfirst.frc.team79.robot.camera;
+
+/**
+ * Finds 8-connected blobs in a binary mask without tracing contours.
+ *
+ * Each row is run-length encoded, runs that touch runs in the row above are
+ * joined with union-find, and the area (pixel count), bounding box and first
+ * order moments of every blob are accumulated straight into int/long arrays.
+ * The arrays are kept between frames and only grow, so steady state
+ * extraction allocates nothing.
+ *
+ * Unlike Imgproc.contourArea(), the area is the number of pixels set, so
+ * holes don't count towards it and boundary pixels count fully.
+ */
+public class BlobExtractor implements BlobSet {
+
+	private static final int INITIAL_RUNS = 1024;
+	private static final int INITIAL_BLOBS = 64;
+
+	// Runs of the last extraction in row order, end is exclusive
+	int runCount;
+	int[] runRow = new int[INITIAL_RUNS];
+	int[] runStart = new int[INITIAL_RUNS];
+	int[] runEnd = new int[INITIAL_RUNS];
+	int[] runLabel = new int[INITIAL_RUNS];
+	private int[] parent = new int[INITIAL_RUNS];
+
+	// Index of the first run of each row, relative to the first row extracted
+	int rowOffset;
+	int[] rowFirstRun = new int[1];
+
+	int blobCount;
+	int[] area = new int[INITIAL_BLOBS];
+	int[] minX = new int[INITIAL_BLOBS];
+	int[] minY = new int[INITIAL_BLOBS];
+	int[] maxX = new int[INITIAL_BLOBS];
+	int[] maxY = new int[INITIAL_BLOBS];
+	long[] sumX = new long[INITIAL_BLOBS]; // sum of 2x, keeps run sums integral
+	long[] sumY = new long[INITIAL_BLOBS];
+
+	public int extract(byte[] mask, int width, int height) {
+		return extract(mask, width, 0, height);
+	}
+
+	/**
+	 * Labels the blobs in rows [rowStart, rowEnd) of the mask. Any non-zero
+	 * byte is foreground.
+	 *
+	 * @return the number of blobs found
+	 */
+	public int extract(byte[] mask, int width, int rowStart, int rowEnd) {
+		runCount = 0;
+		rowOffset = rowStart;
+		if (rowFirstRun.length < rowEnd - rowStart + 1) {
+			rowFirstRun = new int[rowEnd - rowStart + 1];
+		}
+
+		int prevFirst = 0, prevEnd = 0;
+		for (int y = rowStart; y < rowEnd; y++) {
+			int first = runCount;
+			rowFirstRun[y - rowStart] = first;
+
+			// Run-length encode the row
+			int base = y * width;
+			int x = 0;
+			while (x < width) {
+				while (x < width && mask[base + x] == 0) {
+					x++;
+				}
+				if (x == width) {
+					break;
+				}
+				int start = x;
+				while (x < width && mask[base + x] != 0) {
+					x++;
+				}
+				addRun(y, start, x);
+			}
+
+			// Join with runs in the row above, 8-connected so diagonal neighbours
+			// one pixel past either end count as touching
+			int p = prevFirst;
+			for (int c = first; c < runCount; c++) {
+				while (p < prevEnd && runEnd[p] < runStart[c]) {
+					p++;
+				}
+				for (int q = p; q < prevEnd && runStart[q] <= runEnd[c]; q++) {
+					union(c, q);
+				}
+			}
+
+			prevFirst = first;
+			prevEnd = runCount;
+		}
+		rowFirstRun[rowEnd - rowStart] = runCount;
+
+		// Give every root a blob index and accumulate its stats
+		blobCount = 0;
+		for (int i = 0; i < runCount; i++) {
+			int root = find(i);
+			int label;
+			if (root == i) {
+				label = newBlob();
+			} else {
+				// Roots always have a lower index than their children
+				label = runLabel[root];
+			}
+			runLabel[i] = label;
+
+			int len = runEnd[i] - runStart[i];
+			area[label] += len;
+			minX[label] = Math.min(minX[label], runStart[i]);
+			maxX[label] = Math.max(maxX[label], runEnd[i] - 1);
+			minY[label] = Math.min(minY[label], runRow[i]);
+			maxY[label] = Math.max(maxY[label], runRow[i]);
+			sumX[label] += (long) len * (runStart[i] + runEnd[i] - 1);
+			sumY[label] += (long) len * runRow[i] * 2;
+		}
+
+		return blobCount;
+	}
+
+	@Override
+	public int getBlobCount() {
+		return blobCount;
+	}
+
+	/** Number of pixels in the blob (m00). */
+	@Override
+	public int getArea(int blob) {
+		return area[blob];
+	}
+
+	@Override
+	public int getMinX(int blob) {
+		return minX[blob];
+	}
+
+	@Override
+	public int getMinY(int blob) {
+		return minY[blob];
+	}
+
+	@Override
+	public int getWidth(int blob) {
+		return maxX[blob] - minX[blob] + 1;
+	}
+
+	@Override
+	public int getHeight(int blob) {
+		return maxY[blob] - minY[blob] + 1;
+	}
+
+	/** m10/m00 */
+	@Override
+	public double getCentroidX(int blob) {
+		return sumX[blob] / (2.0 * area[blob]);
+	}
+
+	/** m01/m00 */
+	@Override
+	public double getCentroidY(int blob) {
+		return sumY[blob] / (2.0 * area[blob]);
+	}
+
+	private void addRun(int row, int start, int end) {
+		if (runCount == runRow.length) {
+			int size = runCount * 2;
+			runRow = grow(runRow, size);
+			runStart = grow(runStart, size);
+			runEnd = grow(runEnd, size);
+			runLabel = grow(runLabel, size);
+			parent = grow(parent, size);
+		}
+
+		runRow[runCount] = row;
+		runStart[runCount] = start;
+		runEnd[runCount] = end;
+		parent[runCount] = runCount;
+		runCount++;
+	}
+
+	private int newBlob() {
+		if (blobCount == area.length) {
+			int size = blobCount * 2;
+			area = grow(area, size);
+			minX = grow(minX, size);
+			minY = grow(minY, size);
+			maxX = grow(maxX, size);
+			maxY = grow(maxY, size);
+			sumX = grow(sumX, size);
+			sumY = grow(sumY, size);
+		}
+
+		int blob = blobCount++;
+		area[blob] = 0;
+		minX[blob] = Integer.MAX_VALUE;
+		minY[blob] = Integer.MAX_VALUE;
+		maxX[blob] = -1;
+		maxY[blob] = -1;
+		sumX[blob] = 0;
+		sumY[blob] = 0;
+		return blob;
+	}
+
+	private int find(int i) {
+		while (parent[i] != i) {
+			parent[i] = parent[parent[i]]; // path halving
+			i = parent[i];
+		}
+		return i;
+	}
+
+	private void union(int a, int b) {
+		int ra = find(a), rb = find(b);
+		// Keep the lower index as the root so labels can be assigned in one pass
+		if (ra < rb) {
+			parent[rb] = ra;
+		} else if (rb < ra) {
+			parent[ra] = rb;
+		}
+	}
+
+	private static int[] grow(int[] array, int size) {
+		int[] grown = new int[size];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+
+	private static long[] grow(long[] array, int size) {
+		long[] grown = new long[size];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+}
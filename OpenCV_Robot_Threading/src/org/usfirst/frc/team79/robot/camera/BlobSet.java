@@ -0,0 +1,26 @@
+package org.usfirst.frc.team79.robot.camera;
+
+/**
+ * Blobs found in a mask, as BlobExtractor and TiledSegmenter report them.
+ */
+public interface BlobSet {
+
+	int getBlobCount();
+
+	/** Number of pixels in the blob (m00). */
+	int getArea(int blob);
+
+	int getMinX(int blob);
+
+	int getMinY(int blob);
+
+	int getWidth(int blob);
+
+	int getHeight(int blob);
+
+	/** m10/m00 */
+	double getCentroidX(int blob);
+
+	/** m01/m00 */
+	double getCentroidY(int blob);
+}
@@ -0,0 +1,209 @@
+package org.usfirst.frc.team79.robot.camera;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Pixel to angle model of the camera from its calibration intrinsics.
+ *
+ * The undistorted ray and the yaw/pitch of every pixel are computed once
+ * when the frame size is known, so per frame only the few feature points we
+ * care about (centers, corners) are looked up. The image itself is never
+ * undistorted.
+ *
+ * Calibration is read from a properties file with the OpenCV camera matrix
+ * and distortion coefficients (fx, fy, cx, cy, k1, k2, p1, p2, k3) and the
+ * width/height it was calibrated at. Without one, a pinhole camera with the
+ * default horizontal field of view and no distortion is assumed.
+ */
+public class CameraGeometry {
+
+	public static final double DEFAULT_FOV_X = 58; // degrees
+
+	private static final int UNDISTORT_ITERATIONS = 5;
+
+	private final int width, height;
+	private final double fx, fy, cx, cy;
+	private final double k1, k2, p1, p2, k3;
+
+	// Per pixel lookup tables, row major
+	private final float[] rayX, rayY; // undistorted normalized image coordinates
+	private final float[] yaw, pitch; // degrees, right and up are positive
+
+	/**
+	 * Loads the calibration at path for frames of the given size, falling
+	 * back to the default model if the file can't be read.
+	 */
+	public static CameraGeometry load(String path, int width, int height) {
+		Properties calibration = new Properties();
+		InputStream in = null;
+		try {
+			in = new FileInputStream(path);
+			calibration.load(in);
+		} catch (IOException e) {
+			System.out.println("No camera calibration at " + path + ", assuming "
+					+ DEFAULT_FOV_X + " degree FOV without distortion");
+			return new CameraGeometry(width, height);
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+
+		try {
+			// Intrinsics scale with the resolution the camera is run at
+			double scaleX = width / get(calibration, "width", width);
+			double scaleY = height / get(calibration, "height", height);
+			return new CameraGeometry(width, height,
+					get(calibration, "fx", 0) * scaleX, get(calibration, "fy", 0) * scaleY,
+					get(calibration, "cx", 0) * scaleX, get(calibration, "cy", 0) * scaleY,
+					get(calibration, "k1", 0), get(calibration, "k2", 0),
+					get(calibration, "p1", 0), get(calibration, "p2", 0),
+					get(calibration, "k3", 0));
+		} catch (IllegalArgumentException e) {
+			System.out.println("ERROR bad camera calibration in " + path + ": " + e.getMessage());
+			return new CameraGeometry(width, height);
+		}
+	}
+
+	/**
+	 * Distortion free model with the default field of view.
+	 */
+	public CameraGeometry(int width, int height) {
+		this(width, height,
+				(width / 2.0) / Math.tan(Math.toRadians(DEFAULT_FOV_X / 2)),
+				(width / 2.0) / Math.tan(Math.toRadians(DEFAULT_FOV_X / 2)),
+				(width - 1) / 2.0, (height - 1) / 2.0, 0, 0, 0, 0, 0);
+	}
+
+	public CameraGeometry(int width, int height, double fx, double fy, double cx, double cy,
+			double k1, double k2, double p1, double p2, double k3) {
+		if (fx <= 0 || fy <= 0) {
+			throw new IllegalArgumentException("Focal lengths must be positive");
+		}
+
+		this.width = width;
+		this.height = height;
+		this.fx = fx;
+		this.fy = fy;
+		this.cx = cx;
+		this.cy = cy;
+		this.k1 = k1;
+		this.k2 = k2;
+		this.p1 = p1;
+		this.p2 = p2;
+		this.k3 = k3;
+
+		rayX = new float[width * height];
+		rayY = new float[width * height];
+		yaw = new float[width * height];
+		pitch = new float[width * height];
+
+		double[] ray = new double[2];
+		for (int v = 0; v < height; v++) {
+			for (int u = 0; u < width; u++) {
+				int i = v * width + u;
+				undistort(u, v, ray);
+				rayX[i] = (float) ray[0];
+				rayY[i] = (float) ray[1];
+				yaw[i] = (float) Math.toDegrees(Math.atan(ray[0]));
+				pitch[i] = (float) Math.toDegrees(Math.atan2(-ray[1], Math.sqrt(1 + ray[0] * ray[0])));
+			}
+		}
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Horizontal angle to the pixel in degrees, positive to the right of the
+	 * optical axis.
+	 */
+	public double getYaw(double u, double v) {
+		return sample(yaw, u, v);
+	}
+
+	/**
+	 * Vertical angle to the pixel in degrees, positive above the optical axis.
+	 */
+	public double getPitch(double u, double v) {
+		return sample(pitch, u, v);
+	}
+
+	/**
+	 * Undistorted pixel position of (u, v), as a pinhole camera with the same
+	 * camera matrix would have seen it.
+	 */
+	public double getUndistortedX(double u, double v) {
+		return sample(rayX, u, v) * fx + cx;
+	}
+
+	public double getUndistortedY(double u, double v) {
+		return sample(rayY, u, v) * fy + cy;
+	}
+
+	/**
+	 * Estimates the distance along the optical axis to a vertical target of
+	 * known height, from the rows of its top and bottom edge in column u.
+	 * Returns 0 if the edges are degenerate.
+	 */
+	public double estimateDistance(double u, double top, double bottom, double targetHeight) {
+		double span = sample(rayY, u, bottom) - sample(rayY, u, top);
+		if (span <= 0) {
+			return 0;
+		}
+		return targetHeight / span;
+	}
+
+	/**
+	 * Inverts the distortion model for one pixel, same iteration as OpenCV's
+	 * undistortPoints().
+	 */
+	private void undistort(double u, double v, double[] ray) {
+		double x0 = (u - cx) / fx;
+		double y0 = (v - cy) / fy;
+		double x = x0, y = y0;
+
+		for (int i = 0; i < UNDISTORT_ITERATIONS; i++) {
+			double r2 = x * x + y * y;
+			double icdist = 1 / (1 + ((k3 * r2 + k2) * r2 + k1) * r2);
+			double dx = 2 * p1 * x * y + p2 * (r2 + 2 * x * x);
+			double dy = p1 * (r2 + 2 * y * y) + 2 * p2 * x * y;
+			x = (x0 - dx) * icdist;
+			y = (y0 - dy) * icdist;
+		}
+
+		ray[0] = x;
+		ray[1] = y;
+	}
+
+	// Bilinear lookup, clamped to the frame
+	private double sample(float[] table, double u, double v) {
+		u = Math.max(0, Math.min(width - 1, u));
+		v = Math.max(0, Math.min(height - 1, v));
+
+		int u0 = (int) u, v0 = (int) v;
+		int u1 = Math.min(u0 + 1, width - 1), v1 = Math.min(v0 + 1, height - 1);
+		double fu = u - u0, fv = v - v0;
+
+		double top = table[v0 * width + u0] * (1 - fu) + table[v0 * width + u1] * fu;
+		double bottom = table[v1 * width + u0] * (1 - fu) + table[v1 * width + u1] * fu;
+		return top * (1 - fv) + bottom * fv;
+	}
+
+	private static double get(Properties properties, String key, double defaultValue) {
+		String value = properties.getProperty(key);
+		return (value == null) ? defaultValue : Double.parseDouble(value.trim());
+	}
+}
@@ -0,0 +1,35 @@
+package org.usfirst.frc.team79.robot.camera;
+
+/**
+ * Reactive streams interfaces, same shape as java.util.concurrent.Flow which
+ * isn't available on the roboRIO's Java 8. Moving to Java 9+ only means
+ * swapping the import.
+ */
+public final class EventFlow {
+
+	private EventFlow() {
+	}
+
+	public interface Publisher<T> {
+		void subscribe(Subscriber<? super T> subscriber);
+	}
+
+	public interface Subscriber<T> {
+		void onSubscribe(Subscription subscription);
+
+		void onNext(T item);
+
+		void onError(Throwable throwable);
+
+		void onComplete();
+	}
+
+	public interface Subscription {
+		/**
+		 * Allows n more items to be delivered. n must be positive.
+		 */
+		void request(long n);
+
+		void cancel();
+	}
+}
@@ -0,0 +1,76 @@
+package org.usfirst.frc.team79.robot.camera;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+
+/**
+ * Memory fences for the shared frame seqlock.
+ *
+ * Volatile accesses aren't enough there: the Java memory model lets plain
+ * loads and stores after a volatile write move ahead of it, and plain loads
+ * before a volatile read move after it. The writer needs its frame stores
+ * kept after the odd sequence store, and the reader needs its sequence
+ * re-read kept after its frame loads. Unsafe's fences (Java 8, VarHandle's
+ * from Java 9 on) give exactly that without relying on what HotSpot happens
+ * to emit.
+ *
+ * Unsafe is only looked up by name, so the build doesn't get javac's
+ * "internal proprietary API" warnings, which no @SuppressWarnings can turn
+ * off. The handles are constants bound to the Unsafe instance, which the JIT
+ * inlines down to the fence itself.
+ */
+final class Fences {
+
+	private static final MethodHandle STORE_FENCE;
+	private static final MethodHandle LOAD_FENCE;
+
+	static {
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field field = unsafeClass.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			Object unsafe = field.get(null);
+
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			MethodType type = MethodType.methodType(void.class);
+			STORE_FENCE = lookup.findVirtual(unsafeClass, "storeFence", type).bindTo(unsafe);
+			LOAD_FENCE = lookup.findVirtual(unsafeClass, "loadFence", type).bindTo(unsafe);
+		} catch (Exception e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private Fences() {
+	}
+
+	/** Stores before the fence can't be reordered with stores after it. */
+	static void storeFence() {
+		try {
+			STORE_FENCE.invokeExact();
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	/** Loads before the fence can't be reordered with loads after it. */
+	static void loadFence() {
+		try {
+			LOAD_FENCE.invokeExact();
+		} catch (Throwable t) {
+			throw rethrow(t);
+		}
+	}
+
+	// The fences throw nothing checked, anything else is passed on as is
+	private static RuntimeException rethrow(Throwable t) {
+		if (t instanceof RuntimeException) {
+			return (RuntimeException) t;
+		}
+		if (t instanceof Error) {
+			throw (Error) t;
+		}
+		return new IllegalStateException(t);
+	}
+}
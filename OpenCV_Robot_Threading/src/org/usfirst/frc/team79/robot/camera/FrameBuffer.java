@@ -0,0 +1,44 @@
+package org.usfirst.frc.team79.robot.camera;
+
+import org.opencv.core.Mat;
+
+/**
+ * Everything one frame needs on its way through the processing stages.
+ * The Mats and pixel buffers are allocated up front and reused (the pixel
+ * buffers again only when the frame size changes). The stages still make a
+ * few small objects of their own per frame, see PipelinedProcessing.
+ */
+class FrameBuffer {
+
+	final Mat rawImage = new Mat();
+	final Mat hsv = new Mat();
+	final Mat binImage = new Mat();
+	final Mat outputImage = new Mat();
+
+	// Pure Java stages, sized with the frame
+	byte[] bgrPixels = new byte[0];
+	byte[] maskPixels = new byte[0];
+
+	// Modes the frame was thresholded with, so switching modes mid-pipeline
+	// can't leave analysis looking at a mask that was never made
+	boolean blobExtraction, tiledSegmentation;
+
+	// Totes found by the threshold stage, when it already extracts blobs
+	// (tiled segmentation)
+	final RankedTargets totes = new RankedTargets(VisionService.MAX_TOTES);
+
+	// Set by the threshold stage when the frame looks the same as the last
+	// processed one, analysis then reuses that frame's result
+	final FrameSignature signature = new FrameSignature();
+	boolean unchanged;
+
+	long frameNumber;
+	long captureTime; // System.nanoTime() when the camera returned the frame
+
+	void ensureSize(int width, int height) {
+		if (maskPixels.length != width * height) {
+			bgrPixels = new byte[width * height * 3];
+			maskPixels = new byte[width * height];
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package org.usfirst.frc.team79.robot.camera;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * A tiny area-averaged thumbnail of a frame, cheap enough to make for every
+ * frame and compare against the last frame that was fully processed.
+ *
+ * Each cell averages a block of a few hundred pixels, so sensor noise all but
+ * disappears while anything that moves more than a few pixels changes the
+ * cells it passes through. Comparing the largest cell change rather than the
+ * mean keeps a small target moving in a big static scene from being averaged
+ * away.
+ */
+public class FrameSignature {
+
+	public static final int COLUMNS = 16;
+	public static final int ROWS = 12;
+
+	private static final Size SIZE = new Size(COLUMNS, ROWS);
+
+	private final Mat thumbnail = new Mat();
+	private byte[] cells = new byte[0];
+
+	/**
+	 * Makes this the signature of frame (8-bit, any number of channels).
+	 */
+	public void compute(Mat frame) {
+		Imgproc.resize(frame, thumbnail, SIZE, 0, 0, Imgproc.INTER_AREA);
+
+		int size = (int) (thumbnail.total() * thumbnail.channels());
+		if (cells.length != size) {
+			cells = new byte[size];
+		}
+		thumbnail.get(0, 0, cells);
+	}
+
+	public void copyFrom(FrameSignature other) {
+		if (cells.length != other.cells.length) {
+			cells = new byte[other.cells.length];
+		}
+		System.arraycopy(other.cells, 0, cells, 0, cells.length);
+	}
+
+	/**
+	 * Largest change of any cell and channel between the two signatures, in
+	 * 8-bit levels. 255 if they can't be compared (different frame format or
+	 * never computed).
+	 */
+	public int difference(FrameSignature other) {
+		if (cells.length == 0 || cells.length != other.cells.length) {
+			return 255;
+		}
+
+		int max = 0;
+		for (int i = 0; i < cells.length; i++) {
+			max = Math.max(max, Math.abs((cells[i] & 0xFF) - (other.cells[i] & 0xFF)));
+		}
+		return max;
+	}
+}
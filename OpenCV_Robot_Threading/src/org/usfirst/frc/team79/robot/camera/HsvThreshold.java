@@ -0,0 +1,109 @@
+package org.usfirst.frc.team79.robot.camera;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Pure Java equivalent of cvtColor(COLOR_BGR2HSV) followed by inRange(), done
+ * in one pass over a packed 8-bit BGR frame without building the HSV image.
+ *
+ * Uses the same fixed point math as OpenCV's 8-bit conversion (H is 0-180),
+ * so masks match the native path pixel for pixel. Each pixel is tested on V
+ * first, then S, then H, so most background pixels are rejected before the
+ * hue is ever computed.
+ */
+public class HsvThreshold {
+
+	private static final int HSV_SHIFT = 12;
+	private static final int ROUND = 1 << (HSV_SHIFT - 1);
+	private static final int[] SDIV_TABLE = new int[256];
+	private static final int[] HDIV_TABLE = new int[256];
+
+	static {
+		for (int i = 1; i < 256; i++) {
+			SDIV_TABLE[i] = (int) Math.round((255 << HSV_SHIFT) / (1.0 * i));
+			HDIV_TABLE[i] = (int) Math.round((180 << HSV_SHIFT) / (6.0 * i));
+		}
+	}
+
+	private final int hueMin, satMin, valMin;
+	private final int hueMax, satMax, valMax;
+
+	/**
+	 * Bounds are inclusive, like Core.inRange().
+	 */
+	public HsvThreshold(int hueMin, int satMin, int valMin, int hueMax, int satMax, int valMax) {
+		this.hueMin = hueMin;
+		this.satMin = satMin;
+		this.valMin = valMin;
+		this.hueMax = hueMax;
+		this.satMax = satMax;
+		this.valMax = valMax;
+	}
+
+	public void apply(byte[] bgr, byte[] mask, int width, int height) {
+		apply(bgr, mask, width, 0, height);
+	}
+
+	/**
+	 * Thresholds rows [rowStart, rowEnd) of the frame into mask (255 in range,
+	 * 0 otherwise). Rows outside the range are left untouched, so stripes of
+	 * one frame can be done on different threads.
+	 */
+	public void apply(byte[] bgr, byte[] mask, int width, int rowStart, int rowEnd) {
+		int end = rowEnd * width;
+		for (int i = rowStart * width, j = i * 3; i < end; i++, j += 3) {
+			mask[i] = test(bgr[j] & 0xFF, bgr[j + 1] & 0xFF, bgr[j + 2] & 0xFF);
+		}
+	}
+
+	/**
+	 * Same as {@link #apply(byte[], byte[], int, int)} for frames that live in
+	 * a (possibly direct) buffer, starting at its current position.
+	 */
+	public void apply(ByteBuffer bgr, byte[] mask, int width, int height) {
+		if (bgr.hasArray()) {
+			// Fast path, same loop as the array version
+			byte[] array = bgr.array();
+			int base = bgr.arrayOffset() + bgr.position();
+			int end = width * height;
+			for (int i = 0, j = base; i < end; i++, j += 3) {
+				mask[i] = test(array[j] & 0xFF, array[j + 1] & 0xFF, array[j + 2] & 0xFF);
+			}
+			return;
+		}
+
+		int base = bgr.position();
+		int end = width * height;
+		for (int i = 0, j = base; i < end; i++, j += 3) {
+			mask[i] = test(bgr.get(j) & 0xFF, bgr.get(j + 1) & 0xFF, bgr.get(j + 2) & 0xFF);
+		}
+	}
+
+	private byte test(int b, int g, int r) {
+		int v = Math.max(b, Math.max(g, r));
+		if (v < valMin || v > valMax) {
+			return 0;
+		}
+
+		int diff = v - Math.min(b, Math.min(g, r));
+		int s = (diff * SDIV_TABLE[v] + ROUND) >> HSV_SHIFT;
+		if (s < satMin || s > satMax) {
+			return 0;
+		}
+
+		int h;
+		if (v == r) {
+			h = g - b;
+		} else if (v == g) {
+			h = b - r + 2 * diff;
+		} else {
+			h = r - g + 4 * diff;
+		}
+		h = (h * HDIV_TABLE[diff] + ROUND) >> HSV_SHIFT;
+		if (h < 0) {
+			h += 180;
+		}
+
+		return (h >= hueMin && h <= hueMax) ? (byte) 255 : 0;
+	}
+}
@@ -0,0 +1,144 @@
+package org.usfirst.frc.team79.robot.camera;
+
+/**
+ * Fixed capacity list of targets kept in order of score, best first.
+ *
+ * Everything is allocated up front, so ranking a frame's candidates allocates
+ * nothing and each offer() costs at most capacity moves. Candidates worse than
+ * everything in a full list are dropped.
+ */
+public class RankedTargets {
+
+	public static final int DEFAULT_CAPACITY = 4;
+
+	private final double[] score;
+	private final int[] x, y, width, height; // bounding box in pixels
+	private final double[] angle, distance;
+	private int count;
+
+	public RankedTargets() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public RankedTargets(int capacity) {
+		score = new double[capacity];
+		x = new int[capacity];
+		y = new int[capacity];
+		width = new int[capacity];
+		height = new int[capacity];
+		angle = new double[capacity];
+		distance = new double[capacity];
+	}
+
+	public void clear() {
+		count = 0;
+	}
+
+	/**
+	 * Inserts a target by score, ties keep the earlier one first.
+	 *
+	 * @return its rank, or -1 if it didn't make the list
+	 */
+	public int offer(double targetScore, int targetX, int targetY, int targetWidth, int targetHeight) {
+		int rank = count;
+		while (rank > 0 && score[rank - 1] < targetScore) {
+			rank--;
+		}
+		if (rank == score.length) {
+			return -1;
+		}
+
+		// Shift worse targets down, dropping the last one if full
+		int last = Math.min(count, score.length - 1);
+		for (int i = last; i > rank; i--) {
+			move(i - 1, i);
+		}
+		count = Math.min(count + 1, score.length);
+
+		score[rank] = targetScore;
+		x[rank] = targetX;
+		y[rank] = targetY;
+		width[rank] = targetWidth;
+		height[rank] = targetHeight;
+		angle[rank] = 0;
+		distance[rank] = 0;
+		return rank;
+	}
+
+	/**
+	 * Angle (degrees) and distance (inches) of the target at rank, once known.
+	 */
+	public void setMeasurement(int rank, double targetAngle, double targetDistance) {
+		angle[rank] = targetAngle;
+		distance[rank] = targetDistance;
+	}
+
+	/**
+	 * Copies the list into dst, up to dst's capacity.
+	 */
+	public void copyTo(RankedTargets dst) {
+		int n = Math.min(count, dst.getCapacity());
+		System.arraycopy(score, 0, dst.score, 0, n);
+		System.arraycopy(x, 0, dst.x, 0, n);
+		System.arraycopy(y, 0, dst.y, 0, n);
+		System.arraycopy(width, 0, dst.width, 0, n);
+		System.arraycopy(height, 0, dst.height, 0, n);
+		System.arraycopy(angle, 0, dst.angle, 0, n);
+		System.arraycopy(distance, 0, dst.distance, 0, n);
+		dst.count = n;
+	}
+
+	public int size() {
+		return count;
+	}
+
+	public int getCapacity() {
+		return score.length;
+	}
+
+	public double getScore(int rank) {
+		return score[rank];
+	}
+
+	public int getX(int rank) {
+		return x[rank];
+	}
+
+	public int getY(int rank) {
+		return y[rank];
+	}
+
+	public int getWidth(int rank) {
+		return width[rank];
+	}
+
+	public int getHeight(int rank) {
+		return height[rank];
+	}
+
+	public double getCenterX(int rank) {
+		return x[rank] + width[rank] / 2.0;
+	}
+
+	public double getCenterY(int rank) {
+		return y[rank] + height[rank] / 2.0;
+	}
+
+	public double getAngle(int rank) {
+		return angle[rank];
+	}
+
+	public double getDistance(int rank) {
+		return distance[rank];
+	}
+
+	private void move(int from, int to) {
+		score[to] = score[from];
+		x[to] = x[from];
+		y[to] = y[from];
+		width[to] = width[from];
+		height[to] = height[from];
+		angle[to] = angle[from];
+		distance[to] = distance[from];
+	}
+}
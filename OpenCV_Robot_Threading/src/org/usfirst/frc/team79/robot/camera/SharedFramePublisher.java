@@ -0,0 +1,153 @@
+package org.usfirst.frc.team79.robot.camera;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.opencv.core.Mat;
+
+/**
+ * Publishes the latest frame and measurement into a memory mapped file
+ * (normally under /dev/shm) so other processes on the coprocessor can read
+ * them without opening the camera, sockets or locks.
+ *
+ * The file is a fixed header followed by the pixels, all little endian:
+ *
+ *   0  int    MAGIC
+ *   4  int    VERSION
+ *   8  long   sequence, odd while a frame is being written
+ *   16 long   timestamp (System.currentTimeMillis())
+ *   24 int    width
+ *   28 int    height
+ *   32 int    channels (pixels are packed BGR for 3)
+ *   36 int    1 if the measurement is a valid target
+ *   40 double tote x
+ *   48 double tote y
+ *   56 double tote angle
+ *   64 double tote distance
+ *   72 int    1 while the camera is connected
+ *   HEADER_SIZE  width * height * channels bytes of pixels
+ *
+ * Writes are serialized on the publisher, so the capture thread can mark the
+ * camera disconnected while the processing thread publishes frames. Readers
+ * (see SharedFrameReader) read the sequence, copy or use what they need, and
+ * read the sequence again; if it changed or was odd the frame was torn and
+ * they retry.
+ *
+ * The pixels are copied twice, out of the Mat into an array (the OpenCV 2.4
+ * Java API can't copy into a ByteBuffer) and from there into the mapping.
+ */
+public class SharedFramePublisher {
+
+	public static final int MAGIC = 0x434B3739; // "CK79"
+	public static final int VERSION = 2;
+	public static final int HEADER_SIZE = 128;
+
+	static final int SEQUENCE = 8;
+	static final int TIMESTAMP = 16;
+	static final int WIDTH = 24;
+	static final int HEIGHT = 28;
+	static final int CHANNELS = 32;
+	static final int VALID = 36;
+	static final int TOTE_X = 40;
+	static final int TOTE_Y = 48;
+	static final int TOTE_ANGLE = 56;
+	static final int TOTE_DISTANCE = 64;
+	static final int CONNECTED = 72;
+
+	private final MappedByteBuffer buffer;
+	private final int capacity;
+	private byte[] pixels = new byte[0];
+	private long sequence = 0;
+	private boolean warnedTooLarge = false;
+
+	/**
+	 * Creates (or truncates) the file at path, with room for frames of up to
+	 * maxFrameBytes.
+	 */
+	public SharedFramePublisher(String path, int maxFrameBytes) throws IOException {
+		capacity = maxFrameBytes;
+
+		RandomAccessFile file = new RandomAccessFile(path, "rw");
+		try {
+			file.setLength(HEADER_SIZE + maxFrameBytes);
+			buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + maxFrameBytes);
+		} finally {
+			// The mapping stays valid after the channel is closed
+			file.close();
+		}
+
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putLong(SEQUENCE, 0);
+		buffer.putInt(4, VERSION);
+		buffer.putInt(0, MAGIC);
+	}
+
+	public synchronized long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Publishes an 8-bit frame and the measurement that came from it. Frames
+	 * larger than the mapping are published without pixels (0x0).
+	 */
+	public synchronized void publish(Mat frame, boolean valid, double x, double y, double angle, double distance) {
+		int width = frame.width(), height = frame.height(), channels = frame.channels();
+		int size = width * height * channels;
+		if (size > capacity) {
+			if (!warnedTooLarge) {
+				System.out.println("Frame of " + size + " bytes doesn't fit shared memory, publishing measurements only");
+				warnedTooLarge = true;
+			}
+			width = height = size = 0;
+		}
+
+		if (pixels.length != size) {
+			pixels = new byte[size];
+		}
+		if (size > 0) {
+			frame.get(0, 0, pixels);
+		}
+
+		beginWrite();
+		buffer.putLong(TIMESTAMP, System.currentTimeMillis());
+		buffer.putInt(WIDTH, width);
+		buffer.putInt(HEIGHT, height);
+		buffer.putInt(CHANNELS, channels);
+		buffer.putInt(VALID, valid ? 1 : 0);
+		buffer.putDouble(TOTE_X, x);
+		buffer.putDouble(TOTE_Y, y);
+		buffer.putDouble(TOTE_ANGLE, angle);
+		buffer.putDouble(TOTE_DISTANCE, distance);
+		buffer.putInt(CONNECTED, 1);
+		buffer.position(HEADER_SIZE);
+		buffer.put(pixels, 0, size);
+		endWrite();
+	}
+
+	/**
+	 * Marks the camera disconnected and the measurement invalid, keeping the
+	 * last frame's pixels.
+	 */
+	public synchronized void publishDisconnected() {
+		beginWrite();
+		buffer.putLong(TIMESTAMP, System.currentTimeMillis());
+		buffer.putInt(VALID, 0);
+		buffer.putInt(CONNECTED, 0);
+		endWrite();
+	}
+
+	private void beginWrite() {
+		// Odd sequence tells readers a write is in progress, the fence keeps
+		// the frame stores from moving ahead of it
+		buffer.putLong(SEQUENCE, ++sequence);
+		Fences.storeFence();
+	}
+
+	private void endWrite() {
+		Fences.storeFence();
+		buffer.putLong(SEQUENCE, ++sequence);
+	}
+}
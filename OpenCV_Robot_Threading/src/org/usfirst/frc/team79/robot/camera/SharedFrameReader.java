@@ -0,0 +1,149 @@
+package org.usfirst.frc.team79.robot.camera;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads what a SharedFramePublisher in another process (or this one) wrote,
+ * straight out of the mapping. Meant for dashboards, loggers and other tools
+ * that shouldn't have to open the camera themselves.
+ *
+ * Typical use:
+ *
+ *   long seq = reader.read();
+ *   if (seq > lastSeq) {
+ *       ... use reader.getToteX(), reader.getPixels() ...
+ *       if (reader.isUnchanged(seq)) { the pixels used were all from frame seq }
+ *   }
+ */
+public class SharedFrameReader {
+
+	private static final int MAX_RETRIES = 100;
+
+	private final MappedByteBuffer buffer;
+
+	private long timestamp;
+	private int width, height, channels;
+	private boolean valid, connected;
+	private double toteX, toteY, toteAngle, toteDistance;
+
+	public SharedFrameReader(String path) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(path, "r");
+		try {
+			buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+		} finally {
+			file.close();
+		}
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+		if (buffer.getInt(0) != SharedFramePublisher.MAGIC) {
+			throw new IOException(path + " is not a vision frame file");
+		}
+		if (buffer.getInt(4) != SharedFramePublisher.VERSION) {
+			throw new IOException(path + " has version " + buffer.getInt(4)
+					+ ", expected " + SharedFramePublisher.VERSION);
+		}
+	}
+
+	/**
+	 * Copies the header of the latest frame into this reader.
+	 *
+	 * @return the frame's sequence number, or -1 if the writer kept getting in
+	 *         the way
+	 */
+	public long read() {
+		for (int i = 0; i < MAX_RETRIES; i++) {
+			long sequence = buffer.getLong(SharedFramePublisher.SEQUENCE);
+			if ((sequence & 1) != 0) {
+				Thread.yield();
+				continue;
+			}
+			Fences.loadFence();
+
+			timestamp = buffer.getLong(SharedFramePublisher.TIMESTAMP);
+			width = buffer.getInt(SharedFramePublisher.WIDTH);
+			height = buffer.getInt(SharedFramePublisher.HEIGHT);
+			channels = buffer.getInt(SharedFramePublisher.CHANNELS);
+			valid = buffer.getInt(SharedFramePublisher.VALID) != 0;
+			connected = buffer.getInt(SharedFramePublisher.CONNECTED) != 0;
+			toteX = buffer.getDouble(SharedFramePublisher.TOTE_X);
+			toteY = buffer.getDouble(SharedFramePublisher.TOTE_Y);
+			toteAngle = buffer.getDouble(SharedFramePublisher.TOTE_ANGLE);
+			toteDistance = buffer.getDouble(SharedFramePublisher.TOTE_DISTANCE);
+
+			if (isUnchanged(sequence)) {
+				return sequence;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Whether the writer hasn't started another frame since sequence, i.e.
+	 * everything read from the mapping since read() belongs to that frame.
+	 */
+	public boolean isUnchanged(long sequence) {
+		Fences.loadFence();
+		return buffer.getLong(SharedFramePublisher.SEQUENCE) == sequence;
+	}
+
+	/**
+	 * Read-only view of the pixels in the mapping, no copy is made. Check
+	 * isUnchanged() after using it.
+	 */
+	public ByteBuffer getPixels() {
+		ByteBuffer pixels = buffer.duplicate();
+		pixels.position(SharedFramePublisher.HEADER_SIZE);
+		pixels.limit(SharedFramePublisher.HEADER_SIZE + width * height * channels);
+		return pixels.slice().asReadOnlyBuffer();
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getChannels() {
+		return channels;
+	}
+
+	/**
+	 * False while the vision service has lost the camera, the pixels are then
+	 * from the last frame before it went away.
+	 */
+	public boolean isConnected() {
+		return connected;
+	}
+
+	public boolean hasTarget() {
+		return valid;
+	}
+
+	public double getToteX() {
+		return toteX;
+	}
+
+	public double getToteY() {
+		return toteY;
+	}
+
+	public double getToteAngle() {
+		return toteAngle;
+	}
+
+	public double getToteDistance() {
+		return toteDistance;
+	}
+}
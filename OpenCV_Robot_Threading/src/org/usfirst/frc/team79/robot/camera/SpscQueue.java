@@ -0,0 +1,72 @@
+package org.usfirst.frc.team79.robot.camera;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded lock-free queue for exactly one producer thread and one consumer
+ * thread, used to hand preallocated frame buffers between pipeline stages.
+ */
+class SpscQueue<T> {
+
+	private static final long IDLE_PARK = 200000; // nanos
+
+	private final Object[] items;
+	private final int mask;
+
+	// head is only written by the consumer, tail only by the producer
+	private final AtomicLong head = new AtomicLong(0);
+	private final AtomicLong tail = new AtomicLong(0);
+
+	SpscQueue(int capacity) {
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		items = new Object[size];
+		mask = size - 1;
+	}
+
+	boolean offer(T item) {
+		long t = tail.get();
+		if (t - head.get() == items.length) {
+			return false;
+		}
+		items[(int) (t & mask)] = item;
+		tail.lazySet(t + 1); // publishes the item
+		return true;
+	}
+
+	@SuppressWarnings("unchecked")
+	T poll() {
+		long h = head.get();
+		if (h == tail.get()) {
+			return null;
+		}
+		int index = (int) (h & mask);
+		T item = (T) items[index];
+		items[index] = null;
+		head.lazySet(h + 1);
+		return item;
+	}
+
+	/**
+	 * Waits until there's room for the item.
+	 */
+	void put(T item) {
+		while (!offer(item)) {
+			LockSupport.parkNanos(IDLE_PARK);
+		}
+	}
+
+	/**
+	 * Waits until there's an item.
+	 */
+	T take() {
+		T item;
+		while ((item = poll()) == null) {
+			LockSupport.parkNanos(IDLE_PARK);
+		}
+		return item;
+	}
+}
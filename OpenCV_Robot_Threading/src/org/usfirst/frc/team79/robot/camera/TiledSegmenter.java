@@ -0,0 +1,241 @@
+package org.usfirst.frc.team79.robot.camera;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Thresholds a frame and extracts its blobs in horizontal stripes on a
+ * fork-join pool, then joins blobs that cross the seams between stripes so
+ * the result is the same as a single BlobExtractor over the whole mask.
+ *
+ * Every stripe has its own BlobExtractor and task, reused from frame to
+ * frame. The calling thread works on the first stripe itself.
+ */
+public class TiledSegmenter implements BlobSet {
+
+	private final ForkJoinPool pool;
+	private final HsvThreshold threshold;
+	private final StripeTask[] tasks;
+
+	// Union-find over the blobs of all stripes, stripe k's blobs start at offset[k]
+	private int[] offset;
+	private int[] parent = new int[256];
+	private int[] merged = new int[256];
+
+	private int blobCount;
+	private int[] area = new int[64];
+	private int[] minX = new int[64];
+	private int[] minY = new int[64];
+	private int[] maxX = new int[64];
+	private int[] maxY = new int[64];
+	private long[] sumX = new long[64]; // sum of 2x, same as BlobExtractor
+	private long[] sumY = new long[64];
+
+	public TiledSegmenter(HsvThreshold threshold) {
+		this(threshold, ForkJoinPool.commonPool(), ForkJoinPool.commonPool().getParallelism() + 1);
+	}
+
+	public TiledSegmenter(HsvThreshold threshold, ForkJoinPool pool, int stripes) {
+		this.pool = pool;
+		this.threshold = threshold;
+		tasks = new StripeTask[Math.max(1, stripes)];
+		for (int i = 0; i < tasks.length; i++) {
+			tasks[i] = new StripeTask();
+		}
+		offset = new int[tasks.length + 1];
+	}
+
+	/**
+	 * Thresholds the packed BGR frame into mask and finds its blobs.
+	 *
+	 * @return the number of blobs
+	 */
+	public int segment(byte[] bgr, byte[] mask, int width, int height) {
+		int stripes = Math.min(tasks.length, height);
+		for (int i = 0; i < stripes; i++) {
+			tasks[i].reinitialize();
+			tasks[i].set(bgr, mask, width, i * height / stripes, (i + 1) * height / stripes);
+		}
+
+		for (int i = 1; i < stripes; i++) {
+			pool.execute(tasks[i]);
+		}
+		tasks[0].invoke();
+		for (int i = 1; i < stripes; i++) {
+			tasks[i].join();
+		}
+
+		merge(stripes);
+		return blobCount;
+	}
+
+	@Override
+	public int getBlobCount() {
+		return blobCount;
+	}
+
+	/** Number of pixels in the blob (m00). */
+	@Override
+	public int getArea(int blob) {
+		return area[blob];
+	}
+
+	@Override
+	public int getMinX(int blob) {
+		return minX[blob];
+	}
+
+	@Override
+	public int getMinY(int blob) {
+		return minY[blob];
+	}
+
+	@Override
+	public int getWidth(int blob) {
+		return maxX[blob] - minX[blob] + 1;
+	}
+
+	@Override
+	public int getHeight(int blob) {
+		return maxY[blob] - minY[blob] + 1;
+	}
+
+	/** m10/m00 */
+	@Override
+	public double getCentroidX(int blob) {
+		return sumX[blob] / (2.0 * area[blob]);
+	}
+
+	/** m01/m00 */
+	@Override
+	public double getCentroidY(int blob) {
+		return sumY[blob] / (2.0 * area[blob]);
+	}
+
+	private void merge(int stripes) {
+		offset[0] = 0;
+		for (int i = 0; i < stripes; i++) {
+			offset[i + 1] = offset[i] + tasks[i].blobs.getBlobCount();
+		}
+		int total = offset[stripes];
+		if (parent.length < total) {
+			parent = new int[total * 2];
+			merged = new int[total * 2];
+		}
+		for (int i = 0; i < total; i++) {
+			parent[i] = i;
+			merged[i] = -1;
+		}
+
+		// Join blobs touching across each seam, 8-connected like BlobExtractor
+		for (int k = 0; k + 1 < stripes; k++) {
+			BlobExtractor above = tasks[k].blobs, below = tasks[k + 1].blobs;
+			int seam = tasks[k + 1].rowStart;
+
+			int a = above.rowFirstRun[seam - 1 - above.rowOffset];
+			int aEnd = above.rowFirstRun[seam - above.rowOffset];
+			int bEnd = below.rowFirstRun[1];
+			for (int b = below.rowFirstRun[0]; b < bEnd; b++) {
+				while (a < aEnd && above.runEnd[a] < below.runStart[b]) {
+					a++;
+				}
+				for (int q = a; q < aEnd && above.runStart[q] <= below.runEnd[b]; q++) {
+					union(offset[k] + above.runLabel[q], offset[k + 1] + below.runLabel[b]);
+				}
+			}
+		}
+
+		// Combine the stats of joined blobs
+		blobCount = 0;
+		for (int k = 0; k < stripes; k++) {
+			BlobExtractor blobs = tasks[k].blobs;
+			for (int i = 0; i < blobs.blobCount; i++) {
+				int root = find(offset[k] + i);
+				if (merged[root] < 0) {
+					merged[root] = newBlob();
+				}
+				int m = merged[root];
+				area[m] += blobs.area[i];
+				minX[m] = Math.min(minX[m], blobs.minX[i]);
+				minY[m] = Math.min(minY[m], blobs.minY[i]);
+				maxX[m] = Math.max(maxX[m], blobs.maxX[i]);
+				maxY[m] = Math.max(maxY[m], blobs.maxY[i]);
+				sumX[m] += blobs.sumX[i];
+				sumY[m] += blobs.sumY[i];
+			}
+		}
+	}
+
+	private int newBlob() {
+		if (blobCount == area.length) {
+			int size = blobCount * 2;
+			area = grow(area, size);
+			minX = grow(minX, size);
+			minY = grow(minY, size);
+			maxX = grow(maxX, size);
+			maxY = grow(maxY, size);
+			sumX = grow(sumX, size);
+			sumY = grow(sumY, size);
+		}
+
+		int blob = blobCount++;
+		area[blob] = 0;
+		minX[blob] = Integer.MAX_VALUE;
+		minY[blob] = Integer.MAX_VALUE;
+		maxX[blob] = -1;
+		maxY[blob] = -1;
+		sumX[blob] = 0;
+		sumY[blob] = 0;
+		return blob;
+	}
+
+	private int find(int i) {
+		while (parent[i] != i) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+
+	private void union(int a, int b) {
+		int ra = find(a), rb = find(b);
+		if (ra != rb) {
+			parent[Math.max(ra, rb)] = Math.min(ra, rb);
+		}
+	}
+
+	private static int[] grow(int[] array, int size) {
+		int[] grown = new int[size];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+
+	private static long[] grow(long[] array, int size) {
+		long[] grown = new long[size];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+
+	private class StripeTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		final BlobExtractor blobs = new BlobExtractor();
+		byte[] bgr, mask;
+		int width, rowStart, rowEnd;
+
+		void set(byte[] bgr, byte[] mask, int width, int rowStart, int rowEnd) {
+			this.bgr = bgr;
+			this.mask = mask;
+			this.width = width;
+			this.rowStart = rowStart;
+			this.rowEnd = rowEnd;
+		}
+
+		@Override
+		protected void compute() {
+			threshold.apply(bgr, mask, width, rowStart, rowEnd);
+			blobs.extract(mask, width, rowStart, rowEnd);
+		}
+	}
+}
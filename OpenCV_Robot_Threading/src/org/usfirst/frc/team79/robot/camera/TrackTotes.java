@@ -5,10 +5,10 @@ import edu.wpi.first.wpilibj.command.Command;
 /**
  *
  */
-public class TrackTotes extends Command {
+public class TrackTotes extends Command implements EventFlow.Subscriber<VisionEvent> {
 
 	VisionService vision;
-	boolean trackingStarted;
+	volatile EventFlow.Subscription subscription;
 	
     public TrackTotes() {
     	vision = VisionService.getInstance();
@@ -16,18 +16,12 @@ public class TrackTotes extends Command {
 
     // Called just before this Command runs the first time
     protected void initialize() {
-    	trackingStarted = false;
+    	// Results are pushed to onNext() as soon as a frame is done
+    	vision.getEvents().subscribe(this);
     }
 
     // Called repeatedly when this Command is scheduled to run
     protected void execute() {
-    	if(!trackingStarted){
-    		if(vision.cameraConnected() && vision.processingImage()){
-    			trackingStarted = true;
-    		}
-    	} else {
-    		System.out.println("X: " + vision.getToteX() + ", Y: " + vision.getToteY());
-    	}
     }
 
     // Make this return true when this Command no longer needs to run execute()
@@ -37,10 +31,52 @@ public class TrackTotes extends Command {
 
     // Called once after isFinished returns true
     protected void end() {
+    	if(subscription != null){
+    		subscription.cancel();
+    		subscription = null;
+    	}
     }
 
     // Called when another command which requires one or more of the same
     // subsystems is scheduled to run
     protected void interrupted() {
+    	end();
     }
+
+	@Override
+	public void onSubscribe(EventFlow.Subscription subscription) {
+		this.subscription = subscription;
+		subscription.request(1);
+	}
+
+	@Override
+	public void onNext(VisionEvent event) {
+		switch(event.getType()){
+		case VisionEvent.MEASUREMENT:
+			System.out.println("X: " + event.getToteX() + ", Y: " + event.getToteY()
+					+ ", ANGLE: " + event.getToteAngle() + ", DISTANCE: " + event.getToteDistance());
+			break;
+		case VisionEvent.CAMERA_DISCONNECTED:
+			// Camera dropped out, wait for it to come back
+			System.out.println("Camera lost, vision down for " + vision.getDowntime() + " seconds total");
+			break;
+		default:
+			System.out.println(event);
+		}
+		
+		// One at a time, if we fall behind the oldest events get dropped
+		EventFlow.Subscription s = subscription;
+		if(s != null){
+			s.request(1);
+		}
+	}
+
+	@Override
+	public void onError(Throwable throwable) {
+		throwable.printStackTrace();
+	}
+
+	@Override
+	public void onComplete() {
+	}
 }
@@ -0,0 +1,117 @@
+package org.usfirst.frc.team79.robot.camera;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches /dev for a USB camera's device node (/dev/videoN) being removed or
+ * re-created, so the capture thread finds out about a pulled cable from the
+ * kernel instead of sleeping and polling VideoCapture.open().
+ *
+ * Falls back to checking whether the node exists if the watch service can't
+ * be created.
+ */
+public class VideoDeviceWatcher {
+
+	private static final long FALLBACK_POLL_DELAY = 100; // millis
+
+	private final Path device;
+	private WatchService watcher;
+	private volatile boolean removed = false;
+
+	public VideoDeviceWatcher(int videoStreamAddress) {
+		device = Paths.get("/dev/video" + videoStreamAddress);
+
+		try {
+			watcher = FileSystems.getDefault().newWatchService();
+			device.getParent().register(watcher,
+					StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_DELETE);
+		} catch (IOException e) {
+			System.out.println("Could not watch " + device.getParent()
+					+ ", falling back to polling: " + e.getMessage());
+			watcher = null;
+		}
+	}
+
+	public boolean deviceExists() {
+		return Files.exists(device);
+	}
+
+	/**
+	 * Non-blocking check for whether the device node has been deleted since
+	 * the last call to {@link #awaitDevice(long)}.
+	 */
+	public boolean deviceRemoved() {
+		if (watcher == null) {
+			return !deviceExists();
+		}
+
+		WatchKey key = watcher.poll();
+		if (key != null) {
+			handleEvents(key);
+		}
+
+		return removed;
+	}
+
+	/**
+	 * Blocks until the device node exists or the timeout expires, waking up as
+	 * soon as the kernel re-creates it.
+	 *
+	 * @return true if the device node exists
+	 */
+	public boolean awaitDevice(long timeoutMillis) {
+		removed = false;
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+
+		while (!deviceExists()) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				return false;
+			}
+
+			try {
+				if (watcher == null) {
+					Thread.sleep(Math.min(remaining, FALLBACK_POLL_DELAY));
+				} else {
+					WatchKey key = watcher.poll(remaining, TimeUnit.MILLISECONDS);
+					if (key != null) {
+						handleEvents(key);
+					}
+				}
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+				return deviceExists();
+			}
+		}
+
+		removed = false;
+		return true;
+	}
+
+	private void handleEvents(WatchKey key) {
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				// Lost events, so trust the filesystem instead
+				removed = !deviceExists();
+				continue;
+			}
+
+			if (!device.getFileName().equals(event.context())) {
+				continue;
+			}
+
+			removed = (event.kind() == StandardWatchEventKinds.ENTRY_DELETE);
+		}
+		key.reset();
+	}
+}
@@ -0,0 +1,73 @@
+package org.usfirst.frc.team79.robot.camera;
+
+/**
+ * Something that happened in the VisionService, pushed to subscribers of
+ * VisionService.getEvents() as soon as it happens.
+ */
+public class VisionEvent {
+
+	/** A frame was processed and has a target. */
+	public static final int MEASUREMENT = 0;
+	/** The target from the last frame is gone. */
+	public static final int TARGET_LOST = 1;
+	public static final int CAMERA_CONNECTED = 2;
+	public static final int CAMERA_DISCONNECTED = 3;
+
+	private final int type;
+	private final long timestamp;
+	private final double toteX, toteY, toteAngle, toteDistance;
+
+	public VisionEvent(int type) {
+		this(type, 0, 0, 0, 0);
+	}
+
+	public VisionEvent(int type, double toteX, double toteY, double toteAngle, double toteDistance) {
+		this.type = type;
+		this.timestamp = System.currentTimeMillis();
+		this.toteX = toteX;
+		this.toteY = toteY;
+		this.toteAngle = toteAngle;
+		this.toteDistance = toteDistance;
+	}
+
+	public int getType() {
+		return type;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public double getToteX() {
+		return toteX;
+	}
+
+	public double getToteY() {
+		return toteY;
+	}
+
+	public double getToteAngle() {
+		return toteAngle;
+	}
+
+	public double getToteDistance() {
+		return toteDistance;
+	}
+
+	@Override
+	public String toString() {
+		switch (type) {
+		case MEASUREMENT:
+			return "MEASUREMENT X: " + toteX + ", Y: " + toteY 
+					+ ", ANGLE: " + toteAngle + ", DISTANCE: " + toteDistance;
+		case TARGET_LOST:
+			return "TARGET_LOST";
+		case CAMERA_CONNECTED:
+			return "CAMERA_CONNECTED";
+		case CAMERA_DISCONNECTED:
+			return "CAMERA_DISCONNECTED";
+		default:
+			return "UNKNOWN " + type;
+		}
+	}
+}
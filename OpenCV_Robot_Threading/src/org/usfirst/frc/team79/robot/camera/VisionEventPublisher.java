@@ -0,0 +1,155 @@
+package org.usfirst.frc.team79.robot.camera;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Pushes VisionEvents to any number of subscribers.
+ *
+ * Each subscriber gets its own bounded buffer and is delivered to on a pool
+ * thread as far as its demand allows, so a slow subscriber never holds up
+ * the vision threads or other subscribers. When a buffer is full the oldest
+ * event is dropped, a consumer that falls behind only ever misses stale
+ * frames.
+ */
+public class VisionEventPublisher implements EventFlow.Publisher<VisionEvent> {
+
+	public static final int DEFAULT_BUFFER_SIZE = 16;
+
+	private final int bufferSize;
+	private final List<BufferedSubscription> subscriptions = new CopyOnWriteArrayList<BufferedSubscription>();
+	private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "VisionEventPublisher");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	public VisionEventPublisher() {
+		this(DEFAULT_BUFFER_SIZE);
+	}
+
+	public VisionEventPublisher(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+
+	@Override
+	public void subscribe(EventFlow.Subscriber<? super VisionEvent> subscriber) {
+		BufferedSubscription subscription = new BufferedSubscription(subscriber);
+		subscriber.onSubscribe(subscription);
+		subscriptions.add(subscription);
+	}
+
+	/**
+	 * Hands the event to every subscriber without blocking.
+	 */
+	public void offer(VisionEvent event) {
+		for (BufferedSubscription subscription : subscriptions) {
+			subscription.offer(event);
+		}
+	}
+
+	public int getSubscriberCount() {
+		return subscriptions.size();
+	}
+
+	private class BufferedSubscription implements EventFlow.Subscription, Runnable {
+
+		private final EventFlow.Subscriber<? super VisionEvent> subscriber;
+		private final ArrayDeque<VisionEvent> buffer = new ArrayDeque<VisionEvent>(bufferSize);
+		private long demand = 0;
+		private long dropped = 0;
+		private boolean cancelled = false;
+		private boolean scheduled = false;
+
+		BufferedSubscription(EventFlow.Subscriber<? super VisionEvent> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		synchronized void offer(VisionEvent event) {
+			if (cancelled) {
+				return;
+			}
+
+			// Drop oldest
+			if (buffer.size() == bufferSize) {
+				buffer.pollFirst();
+				dropped++;
+			}
+			buffer.addLast(event);
+			schedule();
+		}
+
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				cancel();
+				subscriber.onError(new IllegalArgumentException("Requested " + n + " events, must be positive"));
+				return;
+			}
+
+			synchronized (this) {
+				demand += n;
+				if (demand < 0) {
+					demand = Long.MAX_VALUE; // Unbounded
+				}
+				schedule();
+			}
+		}
+
+		@Override
+		public void cancel() {
+			synchronized (this) {
+				cancelled = true;
+				buffer.clear();
+			}
+			subscriptions.remove(this);
+
+			if (dropped > 0) {
+				System.out.println("Vision subscriber dropped " + dropped + " events");
+			}
+		}
+
+		// Must hold the lock
+		private void schedule() {
+			if (!scheduled && !cancelled && demand > 0 && !buffer.isEmpty()) {
+				scheduled = true;
+				executor.execute(this);
+			}
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				VisionEvent event;
+				synchronized (this) {
+					if (cancelled || demand == 0 || buffer.isEmpty()) {
+						scheduled = false;
+						return;
+					}
+					event = buffer.pollFirst();
+					if (demand != Long.MAX_VALUE) {
+						demand--;
+					}
+				}
+
+				try {
+					subscriber.onNext(event);
+				} catch (Throwable t) {
+					cancel();
+					subscriber.onError(t);
+					synchronized (this) {
+						scheduled = false;
+					}
+					return;
+				}
+			}
+		}
+	}
+}
@@ -1,10 +1,12 @@
 package org.usfirst.frc.team79.robot.camera;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.opencv.core.Core;
+import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfPoint;
 import org.opencv.core.Point;
@@ -22,27 +24,93 @@ public class VisionService {
 	private static final int FRAME_HEIGHT = 240;
 	private static final double FPS = 7.5;
 	
+	private static final double MIN_TOTE_AREA = 1500; // pixels
+	static final int MAX_TOTES = 4;
+	private static final double TOTE_HEIGHT = 12.1; // inches
+	
+	public static final String CALIBRATION_PATH = "/home/lvuser/camera.properties";
+	public static final String SHARED_FRAME_PATH = "/dev/shm/frc79_vision";
+	
 	private static final double BUFFER_FLUSH_DELAY = 12; // seconds
+	private static final double RECONNECT_FLUSH_DELAY = 1; // seconds
+	private static final double LIVE_READ_TIME = 0.5/FPS; // seconds, a read this slow waited on the camera
+	private static final int LIVE_READS_REQUIRED = 3;
+	private static final int MAX_FAILED_READS = 2;
+	private static final long DEVICE_WAIT_TIMEOUT = 1000; // millis
+	private static final long OPEN_RETRY_DELAY = 100; // millis
+	
+	private static final int PIPELINE_DEPTH = 2; // frames in flight, one per processing stage
+	private static final double STAGE_TIME_SMOOTHING = 0.2;
+	private static final double REPORT_INTERVAL = 10; // seconds
+	private static final int CHANGE_THRESHOLD = 6; // 8-bit levels, see FrameSignature
+	private static final int MAX_SKIPPED_FRAMES = 15; // process at least every 2 seconds
+	
+	// Tote yellow for inRange(), and the same bounds for the pure Java threshold
+	private static final Scalar TOTE_LOWER = new Scalar(20, 100, 100);
+	private static final Scalar TOTE_UPPER = new Scalar(30, 255, 255);
+	private static final HsvThreshold TOTE_THRESHOLD = new HsvThreshold(20, 100, 100, 30, 255, 255);
+	private static final Scalar OUTLINE_COLOR = new Scalar(255, 0, 255);
 	
 	private static VisionService service;
+	private static VisionEventPublisher events = new VisionEventPublisher();
 	private static VideoCapture vcap;
+	private static SharedFramePublisher sharedFrame; // null if it couldn't be created
 	private static int videoStreamAddress = 0; // represents /dev/video0
 	
 	private static volatile double toteX = 0, toteY = 0;
+	private static volatile double toteAngle = 0, toteDistance = 0;
+	private static volatile boolean targetValid = false;
+	private static RankedTargets totes = new RankedTargets(MAX_TOTES); // guarded by measurementMutex
+	private static volatile boolean javaThreshold = false;
+	private static volatile boolean blobExtraction = false;
+	private static volatile boolean tiledSegmentation = false;
+	private static volatile boolean changeDetection = false;
+	private static volatile double lastLatency = 0;
+	private static long skippedFrames = 0; // guarded by measurementMutex
+	private static long processedFrames = 0; // guarded by measurementMutex
+	private static boolean pipelined = false;
+	
+	private static long disconnectedAt = 0; // millis, 0 while connected
+	private static long totalDowntime = 0; // millis
+	private static int disconnectCount = 0;
 	
 	private static Object rawImgMutex = new Object();
 	private static Object measurementMutex = new Object();
+	private static Object connectionMutex = new Object();
 	
 	private static volatile Mat frame = new Mat();
+	private static long frameCount = 0; // guarded by rawImgMutex
+	private static long frameTimestamp = 0; // nanos, guarded by rawImgMutex
 	private static volatile AtomicBoolean cameraConnected = new AtomicBoolean(false);
 	private static volatile AtomicBoolean processingImage = new AtomicBoolean(false);
 	
 	private VisionService(){
+		// Let other processes on this machine see what we see
+		try {
+			sharedFrame = new SharedFramePublisher(SHARED_FRAME_PATH, FRAME_WIDTH*FRAME_HEIGHT*3);
+		} catch (IOException e) {
+			System.out.println("ERROR could not create " + SHARED_FRAME_PATH + ", not sharing frames: " + e.getMessage());
+		}
+		
 		// Start video capture thread
 		Thread videoCaptureThread = new Thread(new VideoCaptureRunnable());
-		Thread imgprocThread = new Thread(new ImageProcessingRunnable());
 		videoCaptureThread.start();
-		imgprocThread.start();
+		
+		if(pipelined){
+			new PipelinedProcessing().start();
+		} else {
+			Thread imgprocThread = new Thread(new ImageProcessingRunnable());
+			imgprocThread.start();
+		}
+	}
+	
+	/**
+	 * Runs the threshold and analysis stages on separate threads so
+	 * consecutive frames overlap. Only takes effect if called before the
+	 * first getInstance().
+	 */
+	public static void setPipelined(boolean enabled){
+		pipelined = enabled;
 	}
 	
 	public static VisionService getInstance(){
@@ -53,6 +121,14 @@ public class VisionService {
 		return service;
 	}
 	
+	/**
+	 * Measurements, lost targets and camera connects/disconnects, pushed as
+	 * soon as they happen so commands don't have to poll the getters.
+	 */
+	public EventFlow.Publisher<VisionEvent> getEvents(){
+		return events;
+	}
+	
 	public boolean cameraConnected(){
 		return cameraConnected.get();
 	}
@@ -61,6 +137,99 @@ public class VisionService {
 		return processingImage.get();
 	}
 	
+	/**
+	 * Whether getToteX()/getToteY() describe a tote in the current frame. False
+	 * while the camera is disconnected or nothing was found.
+	 */
+	public boolean hasTarget(){
+		synchronized (measurementMutex) {
+			return targetValid;
+		}
+	}
+	
+	public int getDisconnectCount(){
+		synchronized (connectionMutex) {
+			return disconnectCount;
+		}
+	}
+	
+	/**
+	 * Total time in seconds the camera has been unavailable after first
+	 * connecting, including the current outage if there is one.
+	 */
+	public double getDowntime(){
+		synchronized (connectionMutex) {
+			long downtime = totalDowntime;
+			if(disconnectedAt != 0){
+				downtime += System.currentTimeMillis() - disconnectedAt;
+			}
+			return downtime/1000.0;
+		}
+	}
+	
+	/**
+	 * Selects the pure Java threshold (HsvThreshold) instead of OpenCV's
+	 * cvtColor + inRange for the processing thread.
+	 */
+	public void setJavaThreshold(boolean enabled){
+		javaThreshold = enabled;
+	}
+	
+	/**
+	 * Selects the run-length BlobExtractor instead of findContours for the
+	 * processing thread. Only area, bounds and center are used, so there's no
+	 * need to trace every boundary pixel.
+	 */
+	public void setBlobExtraction(boolean enabled){
+		blobExtraction = enabled;
+	}
+	
+	/**
+	 * Seconds between the camera returning the last processed frame and its
+	 * measurement being published.
+	 */
+	public double getLatency(){
+		synchronized (measurementMutex) {
+			return lastLatency;
+		}
+	}
+	
+	/**
+	 * Thresholds and extracts blobs in horizontal stripes on all cores, then
+	 * joins blobs across the stripe seams. Trades cores for latency on big
+	 * frames, overrides setJavaThreshold() and setBlobExtraction().
+	 */
+	public void setTiledSegmentation(boolean enabled){
+		tiledSegmentation = enabled;
+	}
+	
+	/**
+	 * Skips thresholding and blob finding for frames that look the same as
+	 * the last one processed, republishing that frame's measurement instead.
+	 * Saves most of the processing while the robot and field are still.
+	 */
+	public void setChangeDetection(boolean enabled){
+		changeDetection = enabled;
+	}
+	
+	/**
+	 * Frames that reused the previous measurement because nothing changed.
+	 */
+	public long getSkippedFrames(){
+		synchronized (measurementMutex) {
+			return skippedFrames;
+		}
+	}
+	
+	/**
+	 * Frames that went through the full pipeline.
+	 */
+	public long getProcessedFrames(){
+		synchronized (measurementMutex) {
+			return processedFrames;
+		}
+	}
+	
 	public double getToteX(){
 		synchronized (measurementMutex) {
 			return toteX;
@@ -73,70 +242,195 @@ public class VisionService {
 		}
 	}
 	
+	/**
+	 * Copies every tote in the current frame, biggest first, into dst (up to
+	 * its capacity). The first one is the tote the other getters describe.
+	 * 
+	 * @return the number of totes copied
+	 */
+	public int getTotes(RankedTargets dst){
+		synchronized (measurementMutex) {
+			totes.copyTo(dst);
+		}
+		return dst.size();
+	}
+	
+	/**
+	 * Horizontal angle to the tote center in degrees, positive to the right,
+	 * corrected for lens distortion.
+	 */
+	public double getToteAngle(){
+		synchronized (measurementMutex) {
+			return toteAngle;
+		}
+	}
+	
+	/**
+	 * Distance to the tote in inches, estimated from its height in the image.
+	 */
+	public double getToteDistance(){
+		synchronized (measurementMutex) {
+			return toteDistance;
+		}
+	}
+	
+	/**
+	 * Copies the latest camera frame into the buffer, unless the buffer
+	 * already holds it.
+	 * 
+	 * @return false if there was no new frame
+	 */
+	private static boolean grabFrame(FrameBuffer f){
+		synchronized(rawImgMutex){
+			if(frame.empty() || frameCount == f.frameNumber){
+				return false;
+			}
+			
+			// Copy global frame to local thread
+			frame.copyTo(f.rawImage);
+			f.frameNumber = frameCount;
+			f.captureTime = frameTimestamp;
+		}
+		
+		return true;
+	}
+	
 	private class VideoCaptureRunnable implements Runnable {
 
+		private VideoDeviceWatcher deviceWatcher;
+
 		@Override
 		public void run() {
 			// Create timer variables
-			long start, end, bufferStart, bufferEnd;
-			start = System.currentTimeMillis();
+			long start, end;
 			
 			// Initialize VideoCapture object
 			vcap = new VideoCapture();
+			deviceWatcher = new VideoDeviceWatcher(videoStreamAddress);
 
 			System.out.println();
 			System.out.println("USB Webcam Server is trying to connect...");
 			System.out.println();
 			
+			boolean reconnect = false;
+			while(true){
+				start = System.currentTimeMillis();
+				openStream();
+				
+				//After Opening Camera we need to configure the returned image setting
+				//all opencv v4l2 camera controls scale from 0.0 - 1.0
+
+
+				System.out.println("Successfully connected to USB Camera!");
+				System.out.println();
+				
+				// Set global boolean to true
+				cameraConnected.set(true);
+				events.offer(new VisionEvent(VisionEvent.CAMERA_CONNECTED));
+				
+				// Calculate setup time for stream
+				end = System.currentTimeMillis();
+				System.out.println("It took " + ((end-start)/1000.0) + " seconds to set up stream");
+				
+				if(reconnect){
+					synchronized (connectionMutex) {
+						double outage = (end - disconnectedAt)/1000.0;
+						totalDowntime += end - disconnectedAt;
+						disconnectedAt = 0;
+						System.out.println("Camera was down for " + outage + " seconds (" 
+								+ disconnectCount + " disconnects, " + (totalDowntime/1000.0) + " seconds total)");
+					}
+				}
+				
+				// Read frames until the camera goes away, then start over
+				readStream(reconnect);
+				streamLost();
+				reconnect = true;
+			}
+		}
+		
+		private void openStream(){
 			int count = 1;
 			
 			//open the video stream and make sure it's opened
 			//We specify desired frame size and fps in constructor
 			//Camera must be able to support specified framesize and frames per second
 			//or this will set camera to defaults
-			while(!vcap.open(videoStreamAddress, FRAME_WIDTH, FRAME_HEIGHT, FPS)){
+			while(true){
+				// Blocks until the kernel creates /dev/videoN, so a replugged camera
+				// is opened as soon as it enumerates instead of on the next poll
+				if(deviceWatcher.awaitDevice(DEVICE_WAIT_TIMEOUT)){
+					if(vcap.open(videoStreamAddress, FRAME_WIDTH, FRAME_HEIGHT, FPS)){
+						return;
+					}
+					
+					// The node can show up before udev has finished with it
+					try {
+						Thread.sleep(OPEN_RETRY_DELAY);
+					} catch (InterruptedException e) {
+						e.printStackTrace();
+					}
+				}
+				
 				System.out.println("ERROR connecting to camera stream, retrying " + count);
 				count++;
-				try {
-					Thread.sleep(1000); // Wait for 1 second to retry
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
 			}
-			
-			//After Opening Camera we need to configure the returned image setting
-			//all opencv v4l2 camera controls scale from 0.0 - 1.0
-
-
-			System.out.println("Successfully connected to USB Camera!");
-			System.out.println();
-			
-			// Set global boolean to true
-			cameraConnected.set(true);
-			
-			// Calculate setup time for stream
-			end = System.currentTimeMillis();
-			System.out.println("It took " + ((start-end)/1000.0) + " seconds to set up stream");
+		}
+		
+		private void readStream(boolean reconnect){
 			// Start timing for flushing the buffer
-			bufferStart = System.currentTimeMillis();
+			long bufferStart = System.currentTimeMillis();
+			int failedReads = 0;
+			int liveReads = 0;
 			
 			// Now, run this thread in a continuous loop
 			while(true){
+				if(deviceWatcher.deviceRemoved()){
+					System.out.println("ERROR camera device was removed");
+					return;
+				}
+				
+				long readStart = System.nanoTime();
+				boolean frameRead;
 				synchronized (rawImgMutex) {
-					vcap.read(frame);	// Load the current camera frame into a global variable
+					frameRead = vcap.read(frame) && !frame.empty();	// Load the current camera frame into a global variable
+					if(frameRead){
+						frameCount++;
+						frameTimestamp = System.nanoTime();
+					}
 				}
+				double readTime = (System.nanoTime() - readStart)/1e9;
 				
-				// End timer to get time since stream started
-				bufferEnd = System.currentTimeMillis();
-				double bufferDifference = (bufferEnd - bufferStart)/1000.0;
+				if(!frameRead){
+					failedReads++;
+					if(failedReads >= MAX_FAILED_READS){
+						System.out.println("ERROR camera stopped returning frames");
+						return;
+					}
+				} else {
+					failedReads = 0;
+				}
 				
-				//The stream takes a while to start up, and because of it, images from the camera
-				//buffer. We don't have a way to jump to the end of the stream to get the latest image, so we
-				//run this loop as fast as we can and throw away all the old images. This way, we wait some number of seconds
-				//before we are at the end of the stream, and can allow processing to begin.
-				if((bufferDifference >= BUFFER_FLUSH_DELAY) && !processingImage.get()){
-					System.out.println("Buffer Cleared: Startin Processing Thread");
-					processingImage.set(true);
+				if(frameRead && !processingImage.get()){
+					// End timer to get time since stream started
+					double bufferDifference = (System.currentTimeMillis() - bufferStart)/1000.0;
+					
+					//The stream takes a while to start up, and because of it, images from the camera
+					//buffer. We don't have a way to jump to the end of the stream to get the latest image, so we
+					//run this loop as fast as we can and throw away all the old images. This way, we wait some number of seconds
+					//before we are at the end of the stream, and can allow processing to begin.
+					//
+					//Buffered frames come back immediately, so on a reconnect we also start as soon as
+					//reads have to wait on the camera for a few frames in a row.
+					liveReads = (readTime >= LIVE_READ_TIME) ? liveReads + 1 : 0;
+					boolean flushed = reconnect ? 
+							(liveReads >= LIVE_READS_REQUIRED || bufferDifference >= RECONNECT_FLUSH_DELAY) : 
+							(bufferDifference >= BUFFER_FLUSH_DELAY);
+					
+					if(flushed){
+						System.out.println("Buffer Cleared: Startin Processing Thread");
+						processingImage.set(true);
+					}
 				}
 				
 				try {
@@ -146,36 +440,69 @@ public class VisionService {
 				}
 			}
 		}
+		
+		private void streamLost(){
+			// Stop processing and stop publishing the last position we saw
+			cameraConnected.set(false);
+			processingImage.set(false);
+			// Offered under the lock that analyze() offers under, so a frame that
+			// was in flight can't send its measurement after the disconnect
+			synchronized (measurementMutex) {
+				targetValid = false;
+				totes.clear();
+				events.offer(new VisionEvent(VisionEvent.CAMERA_DISCONNECTED));
+			}
+			
+			synchronized (connectionMutex) {
+				disconnectedAt = System.currentTimeMillis();
+				disconnectCount++;
+			}
+			
+			synchronized (rawImgMutex) {
+				vcap.release();
+			}
+			if(sharedFrame != null){
+				sharedFrame.publishDisconnected();
+			}
+			
+			System.out.println("Lost USB Camera, reconnecting...");
+			System.out.println();
+		}
 	}
 	
 	private class ImageProcessingRunnable implements Runnable {
-
+		
+		// State of the threshold stage, only touched by the thread running it
+		private TiledSegmenter segmenter;
+		private FrameSignature lastSignature = new FrameSignature();
+		private int framesSkipped = 0;
+		private int disconnectsSeen = 0;
+		
+		// State of the analysis stage, only touched by the thread running it
+		private BlobExtractor blobs = new BlobExtractor();
+		private CameraGeometry geometry;
+		private RankedTargets ranked = new RankedTargets(MAX_TOTES);
+		private final List<MatOfPoint> contours = new ArrayList<MatOfPoint>();
+		private final Mat hierarchy = new Mat();
+		private final Rect largestBound = new Rect();
+		private final Point center = new Point(), topLeft = new Point(), bottomRight = new Point();
+		private long reportStart = System.nanoTime();
+		private int reportFrames = 0;
+		private int reportSkipped = 0;
+		private double reportLatency = 0;
+		
 		@Override
 		public void run() {
 			// Create local processing variables
-			Mat rawImage = new Mat();
-			Mat hsv = new Mat();
-			Mat binImage = new Mat();
-			Mat outputImage = new Mat();
-			boolean frameEmpty = true;
+			FrameBuffer buffer = new FrameBuffer();
 			
 			// Continuously run loop
 			while(true){
-				// Check to see whether or not processing is enabled
-				if(processingImage.get()){
-					synchronized(rawImgMutex){
-						if(!frame.empty()){
-							// Copy global frame to local thread
-							frame.copyTo(rawImage);
-						}
-						
-						frameEmpty = frame.empty(); // Update local variable
-					}
-					
-					// If there was a frame, process it
-					if(!frameEmpty){
-						processImage(rawImage, hsv, binImage, outputImage);
-					}
+				// Check to see whether or not processing is enabled,
+				// and only process each camera frame once
+				if(processingImage.get() && grabFrame(buffer)){
+					threshold(buffer);
+					analyze(buffer);
 				}
 				
 				try {
@@ -186,77 +513,352 @@ public class VisionService {
 			}
 		}
 		
-		private void processImage(Mat rawImage, Mat hsv, Mat binImage, Mat outputImage){
-			// Threshold image with HSV tolerances for yellow
-			Imgproc.cvtColor(rawImage, hsv, Imgproc.COLOR_BGR2HSV);
-			Core.inRange(hsv, new Scalar(20,100,100), new Scalar(30, 255, 255), binImage);
+		/**
+		 * First stage, turns the raw frame into a binary mask (or, tiled, into
+		 * ranked totes). Touches nothing but the buffer and the threshold
+		 * stage's state, so it can run on its own thread.
+		 */
+		void threshold(FrameBuffer f){
+			Mat rawImage = f.rawImage;
+			int width = rawImage.width(), height = rawImage.height();
+			f.ensureSize(width, height);
+			f.blobExtraction = blobExtraction;
+			f.tiledSegmentation = tiledSegmentation;
 			
-			// Find contours
-			List<MatOfPoint> contours = new ArrayList<MatOfPoint>();
-			Point center = new Point();
-			int largestIndex = 0;
-			double largestArea = 0;
-			Rect largestBound = new Rect();
+			// Compare against the last frame that was processed, not the last
+			// frame, so a slow drift still adds up to a change. Always process
+			// the first frame after a reconnect, the camera may have moved.
+			f.unchanged = false;
+			if(changeDetection){
+				int disconnects = getDisconnectCount();
+				f.signature.compute(rawImage);
+				if(framesSkipped < MAX_SKIPPED_FRAMES && disconnects == disconnectsSeen 
+						&& f.signature.difference(lastSignature) < CHANGE_THRESHOLD){
+					f.unchanged = true;
+					framesSkipped++;
+					return;
+				}
+				lastSignature.copyFrom(f.signature);
+				framesSkipped = 0;
+				disconnectsSeen = disconnects;
+			}
 			
-			Imgproc.findContours(binImage, contours, new Mat(), Imgproc.RETR_TREE, Imgproc.CHAIN_APPROX_NONE);
+			// Threshold image with HSV tolerances for yellow
+			if(f.tiledSegmentation){
+				// Thresholds and extracts blobs in one pass over the stripes, ranked
+				// here so analysis only has to measure them
+				rawImage.get(0, 0, f.bgrPixels);
+				if(segmenter == null){
+					segmenter = new TiledSegmenter(TOTE_THRESHOLD);
+				}
+				segmenter.segment(f.bgrPixels, f.maskPixels, width, height);
+				f.totes.clear();
+				rankBlobs(segmenter, f.totes);
+			} else if(javaThreshold){
+				// One copy out of the Mat, instead of a JNI call per stage
+				rawImage.get(0, 0, f.bgrPixels);
+				TOTE_THRESHOLD.apply(f.bgrPixels, f.maskPixels, width, height);
+				if(!f.blobExtraction){
+					f.binImage.create(height, width, CvType.CV_8UC1);
+					f.binImage.put(0, 0, f.maskPixels);
+				}
+			} else {
+				Imgproc.cvtColor(rawImage, f.hsv, Imgproc.COLOR_BGR2HSV);
+				Core.inRange(f.hsv, TOTE_LOWER, TOTE_UPPER, f.binImage);
+				if(f.blobExtraction){
+					f.binImage.get(0, 0, f.maskPixels);
+				}
+			}
+		}
+		
+		/**
+		 * Second stage, finds and scores the tote in the mask, annotates the
+		 * frame and publishes the result.
+		 */
+		void analyze(FrameBuffer f){
+			Mat rawImage = f.rawImage;
+			int width = rawImage.width(), height = rawImage.height();
 			
-			// Declare container for approximating polygons
-			List<MatOfPoint> contours_poly = new ArrayList<MatOfPoint>(contours.size());
-			for(MatOfPoint m : contours_poly){
-				m = new MatOfPoint();
+			// Rank the totes by size, an unchanged frame keeps the last ranking
+			if(f.tiledSegmentation && !f.unchanged){
+				f.totes.copyTo(ranked);
+			} else if(!f.unchanged){
+				ranked.clear();
+				if(f.blobExtraction){
+					blobs.extract(f.maskPixels, width, height);
+					rankBlobs(blobs, ranked);
+				} else {
+					rankContours(f.binImage, ranked);
+				}
 			}
 			
-			// Iterate through contours
-			int minArea = 500;
-			for(int i=0; i < contours.size(); i++){
-				if(Imgproc.contourArea(contours.get(i)) > 1500){
-					// Find contour with largest area
-					// and save off the center values
-					minArea = (int) Imgproc.contourArea(contours.get(i));
-					
-					Rect bound = Imgproc.boundingRect(contours.get(i));
-					
-//					if(bound.height*2 < bound.width){
-//						continue;
-//					}
-
-					// Get biggest one
-					if(Imgproc.contourArea(contours.get(i)) > largestArea){
-						largestArea = Imgproc.contourArea(contours.get(i));
-						largestIndex = i;		
-						largestBound = bound;
-						
-						// Calculate the center of the contour using the nth order (1st order) moments
-						// brush up on that calculus
-//						Moments mu;
-//						mu = Imgproc.moments(contours.get(i), false);
-//						center = new Point(mu.get_m10()/mu.get_m00(), mu.get_m01()/mu.get_m00());
-						center = new Point((bound.x + bound.width) - (bound.width/2.0),
-								(bound.y + bound.height) - (bound.height/2.0));
-					}
+			// Lookup tables are built once for the frame size, after that angle and
+			// distance only cost a few table reads
+			if(geometry == null || geometry.getWidth() != width || geometry.getHeight() != height){
+				geometry = CameraGeometry.load(CALIBRATION_PATH, width, height);
+			}
+			for(int i=0; i < ranked.size(); i++){
+				double x = ranked.getCenterX(i), y = ranked.getY(i);
+				ranked.setMeasurement(i, geometry.getYaw(x, ranked.getCenterY(i)), 
+						geometry.estimateDistance(x, y - 0.5, y + ranked.getHeight(i) - 0.5, TOTE_HEIGHT));
+				
+				// Outline the rest thinner than the biggest
+				if(i > 0){
+					topLeft.x = ranked.getX(i);
+					topLeft.y = y;
+					bottomRight.x = ranked.getX(i) + ranked.getWidth(i);
+					bottomRight.y = y + ranked.getHeight(i);
+					Core.rectangle(rawImage, topLeft, bottomRight, OUTLINE_COLOR, 1);
 				}
 			}
 			
+			// The biggest tote is the one measured
+			largestBound.x = largestBound.y = largestBound.width = largestBound.height = 0;
+			double angle = 0, distance = 0;
+			if(ranked.size() > 0){
+				largestBound.x = ranked.getX(0);
+				largestBound.y = ranked.getY(0);
+				largestBound.width = ranked.getWidth(0);
+				largestBound.height = ranked.getHeight(0);
+				angle = ranked.getAngle(0);
+				distance = ranked.getDistance(0);
+			}
+			center.x = (largestBound.x + largestBound.width) - (largestBound.width/2.0);
+			center.y = (largestBound.y + largestBound.height) - (largestBound.height/2.0);
+			
 			//draw the final contour
 //			Imgproc.drawContours(rawImage, contours, i, new Scalar(255,0,255), 3);
-			Core.rectangle(rawImage, largestBound.tl(), largestBound.br(), new Scalar(255, 0, 255), 3);
-			Core.circle(rawImage, center, 10, new Scalar(255, 0, 255), -10);
+			topLeft.x = largestBound.x;
+			topLeft.y = largestBound.y;
+			bottomRight.x = largestBound.x + largestBound.width;
+			bottomRight.y = largestBound.y + largestBound.height;
+			Core.rectangle(rawImage, topLeft, bottomRight, OUTLINE_COLOR, 3);
+			Core.circle(rawImage, center, 10, OUTLINE_COLOR, -10);
 			
 			// remap the center from top left to center of bottom
 			center.x = (center.x - rawImage.width()/2.0);
 			center.y = -(center.y - rawImage.height()/2.0);
 			
 			// Calculate distance here
+			boolean valid = largestBound.width > 0;
+			double latency = (System.nanoTime() - f.captureTime)/1e9;
 			synchronized (measurementMutex) {
-				toteX = center.x;
-				toteY = center.y;
+				// Don't publish a frame that was in flight when the camera dropped,
+				// its event is offered here too so it stays ahead of
+				// streamLost()'s CAMERA_DISCONNECTED
+				if(cameraConnected.get()){
+					boolean wasValid = targetValid;
+					toteX = center.x;
+					toteY = center.y;
+					toteAngle = angle;
+					toteDistance = distance;
+					targetValid = valid;
+					lastLatency = latency;
+					ranked.copyTo(totes);
+					if(f.unchanged){
+						skippedFrames++;
+					} else {
+						processedFrames++;
+					}
+					
+					if(valid){
+						events.offer(new VisionEvent(VisionEvent.MEASUREMENT, center.x, center.y, angle, distance));
+					} else if(wasValid){
+						events.offer(new VisionEvent(VisionEvent.TARGET_LOST));
+					}
+				}
 			}
 			
 			// Output image (probably will need an "output frame" with a mutex
 			// to allow for the server to catch it as well
-			rawImage.copyTo(outputImage);
+			rawImage.copyTo(f.outputImage);
+			if(sharedFrame != null){
+				// Checked under the publisher's lock, so a frame that was in flight
+				// when the camera dropped can't overwrite streamLost()'s header
+				synchronized (sharedFrame) {
+					if(cameraConnected.get()){
+						sharedFrame.publish(f.outputImage, valid, center.x, center.y, angle, distance);
+					}
+				}
+			}
+			
+			report(latency, f.unchanged);
+		}
+		
+		private void report(double latency, boolean skipped){
+			reportFrames++;
+			reportLatency += latency;
+			if(skipped){
+				reportSkipped++;
+			}
+			
+			double elapsed = (System.nanoTime() - reportStart)/1e9;
+			if(elapsed >= REPORT_INTERVAL){
+				System.out.println(String.format("Vision: %.1f fps, %.1f ms average latency, %d%% unchanged",
+						reportFrames/elapsed, 1000*reportLatency/reportFrames, 100*reportSkipped/reportFrames));
+				reportStart = System.nanoTime();
+				reportFrames = 0;
+				reportSkipped = 0;
+				reportLatency = 0;
+			}
 		}
 		
+		private void rankContours(Mat binImage, RankedTargets ranked){
+			// Find contours, OpenCV's wrapper makes a new MatOfPoint for each one
+			contours.clear();
+			Imgproc.findContours(binImage, contours, hierarchy, Imgproc.RETR_TREE, Imgproc.CHAIN_APPROX_NONE);
+			
+			// Iterate through contours
+			for(int i=0; i < contours.size(); i++){
+				double area = Imgproc.contourArea(contours.get(i));
+				if(area > MIN_TOTE_AREA){
+					Rect bound = Imgproc.boundingRect(contours.get(i));
+					
+//					if(bound.height*2 < bound.width){
+//						continue;
+//					}
+
+					// Keep the biggest few
+					ranked.offer(area, bound.x, bound.y, bound.width, bound.height);
+					
+					// Calculate the center of the contour using the nth order (1st order) moments
+					// brush up on that calculus
+//					Moments mu;
+//					mu = Imgproc.moments(contours.get(i), false);
+//					center = new Point(mu.get_m10()/mu.get_m00(), mu.get_m01()/mu.get_m00());
+				}
+			}
+			
+			// Free the contours' native memory now rather than whenever they're
+			// finalized
+			for(int i=0; i < contours.size(); i++){
+				contours.get(i).release();
+			}
+			contours.clear();
+		}
+		
+		private void rankBlobs(BlobSet blobs, RankedTargets ranked){
+			int count = blobs.getBlobCount();
+			for(int i=0; i < count; i++){
+				if(blobs.getArea(i) > MIN_TOTE_AREA){
+					ranked.offer(blobs.getArea(i), blobs.getMinX(i), blobs.getMinY(i), 
+							blobs.getWidth(i), blobs.getHeight(i));
+				}
+			}
+		}
+		
+	}
+	
+	/**
+	 * Runs the processing stages on their own threads so consecutive frames
+	 * overlap: frame N+1 is being thresholded while frame N is analyzed, and
+	 * throughput is set by the slowest stage instead of the sum of them.
+	 * 
+	 * PIPELINE_DEPTH buffers circulate through single producer/single
+	 * consumer queues (grab -> threshold -> analyze -> back to grab), so the
+	 * frame buffers are never reallocated. Some garbage per frame is left: a
+	 * VisionEvent per published event and, on the contour path, what OpenCV's
+	 * Java wrappers return (the contours and their bounding Rects).
+	 * 
+	 * With one buffer per stage a frame can only ever wait behind the one
+	 * being analyzed, and the grab stage holds off until that one is due to
+	 * finish (less the threshold time), so the frame it grabs comes out of
+	 * threshold as analyze frees up instead of aging in the queue. Latency
+	 * stays about threshold + analyze time even when analyze is the slow
+	 * stage.
+	 */
+	private class PipelinedProcessing {
+		
+		private final ImageProcessingRunnable stages = new ImageProcessingRunnable();
+		private final SpscQueue<FrameBuffer> free = new SpscQueue<FrameBuffer>(PIPELINE_DEPTH);
+		private final SpscQueue<FrameBuffer> grabbed = new SpscQueue<FrameBuffer>(PIPELINE_DEPTH);
+		private final SpscQueue<FrameBuffer> thresholded = new SpscQueue<FrameBuffer>(PIPELINE_DEPTH);
+		
+		// Each written by one stage, read by the grab stage to time its grabs
+		private volatile long analyzeStart = 0; // nanos, 0 while analyze is idle
+		private volatile double analyzeTime = 0, thresholdTime = 0; // seconds, smoothed
+		
+		PipelinedProcessing(){
+			for(int i=0; i < PIPELINE_DEPTH; i++){
+				free.offer(new FrameBuffer());
+			}
+		}
+		
+		void start(){
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					long lastFrame = 0;
+					while(true){
+						FrameBuffer f = free.take();
+						f.frameNumber = lastFrame;
+						waitForAnalyze();
+						
+						// Wait for a new camera frame
+						while(!processingImage.get() || !grabFrame(f)){
+							try {
+								Thread.sleep(1);
+							} catch (InterruptedException e) {
+								e.printStackTrace();
+							}
+						}
+						lastFrame = f.frameNumber;
+						grabbed.put(f);
+					}
+				}
+			}, "Vision grab").start();
+			
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					while(true){
+						FrameBuffer f = grabbed.take();
+						long start = System.nanoTime();
+						stages.threshold(f);
+						thresholdTime = smooth(thresholdTime, (System.nanoTime() - start)/1e9);
+						thresholded.put(f);
+					}
+				}
+			}, "Vision threshold").start();
+			
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					while(true){
+						FrameBuffer f = thresholded.take();
+						long start = System.nanoTime();
+						analyzeStart = start;
+						stages.analyze(f);
+						analyzeTime = smooth(analyzeTime, (System.nanoTime() - start)/1e9);
+						analyzeStart = 0;
+						free.put(f);
+					}
+				}
+			}, "Vision analyze").start();
+		}
+		
+		/**
+		 * Waits until a frame grabbed now would finish thresholding about when
+		 * the frame being analyzed is done.
+		 */
+		private void waitForAnalyze(){
+			while(true){
+				long start = analyzeStart;
+				if(start == 0 || System.nanoTime() - start >= (analyzeTime - thresholdTime)*1e9){
+					return;
+				}
+				
+				try {
+					Thread.sleep(1);
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		
+		private double smooth(double average, double sample){
+			return average == 0 ? sample : average + STAGE_TIME_SMOOTHING*(sample - average);
+		}
 	}
 	
 }
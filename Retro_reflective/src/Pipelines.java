@@ -0,0 +1,84 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.core.Mat;
+import org.opencv.highgui.Highgui;
+
+/**
+ * The retro-reflective pipelines Regression runs, each reporting the left
+ * and right tape pieces of the best target.
+ */
+class Pipelines {
+
+	static List<Regression.Pipeline> all() {
+		List<Regression.Pipeline> pipelines = new ArrayList<Regression.Pipeline>();
+
+		pipelines.add(new Regression.Pipeline("opencv") {
+			Mat image;
+
+			void load(String path) {
+				image = Highgui.imread(path);
+			}
+
+			int[][] process() {
+				Mat binaryImage = new Mat();
+				Program.thresholdHSV(image, binaryImage);
+
+				List<SmartContour> contours = new ArrayList<SmartContour>();
+				Program.convexHull(binaryImage, contours);
+				return boxes(Program.findTargets(contours));
+			}
+		});
+
+		pipelines.add(new Regression.Pipeline("java-threshold") {
+			Mat image;
+
+			void load(String path) {
+				image = Highgui.imread(path);
+			}
+
+			int[][] process() {
+				Mat binaryImage = new Mat();
+				Program.thresholdHSVJava(image, binaryImage);
+
+				List<SmartContour> contours = new ArrayList<SmartContour>();
+				Program.convexHull(binaryImage, contours);
+				return boxes(Program.findTargets(contours));
+			}
+		});
+
+		pipelines.add(new Regression.Pipeline("tiled", false) {
+			byte[] bgr;
+			int width, height;
+
+			void load(String path) {
+				BufferedImage image = Regression.readBGR(path);
+				width = image.getWidth();
+				height = image.getHeight();
+				bgr = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+			}
+
+			int[][] process() {
+				List<SmartContour> contours = new ArrayList<SmartContour>();
+				Program.tiledSegment(bgr, width, height, contours);
+				return boxes(Program.findTargets(contours));
+			}
+		});
+
+		return pipelines;
+	}
+
+	static int[][] boxes(SmartContour[] targets) {
+		return new int[][] { box(targets[0]), box(targets[1]) };
+	}
+
+	static int[] box(SmartContour c) {
+		if (c == null) {
+			return null;
+		}
+		return new int[] { (int) Math.round(c.getTopLeft().x), (int) Math.round(c.getTopLeft().y),
+				(int) Math.round(c.getWidth()), (int) Math.round(c.getHeight()) };
+	}
+}
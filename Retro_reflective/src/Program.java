@@ -3,6 +3,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.opencv.core.Core;
+import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfInt;
 import org.opencv.core.MatOfPoint;
@@ -10,6 +11,8 @@ import org.opencv.core.Point;
 import org.opencv.core.Scalar;
 import org.opencv.highgui.Highgui;
 import org.opencv.imgproc.Imgproc;
+import org.usfirst.frc.team79.robot.camera.HsvThreshold;
+import org.usfirst.frc.team79.robot.camera.TiledSegmenter;
 
 public class Program {
 
@@ -21,6 +24,13 @@ public class Program {
 	public static final double VAL_MIN = 20;
 	public static final double VAL_MAX = 255;
 
+	public static final double MIN_TARGET_AREA = 1200;
+
+	static final HsvThreshold TAPE_THRESHOLD = new HsvThreshold(
+			(int) HUE_MIN + 1, (int) SAT_MIN + 1, (int) VAL_MIN + 1, 255, 255, 255);
+	static TiledSegmenter segmenter = new TiledSegmenter(TAPE_THRESHOLD);
+	static TargetFinder targetFinder = new TargetFinder();
+
 	// Colors
 	static final Scalar COLOR_GREEN = new Scalar(100, 255, 0);
 	static final Scalar COLOR_BLUE = new Scalar(255, 191, 0);
@@ -81,6 +91,21 @@ public class Program {
 		Core.bitwise_and(valDst, binTemp, binaryDst);
 	}
 
+	/**
+	 * Same mask as thresholdHSV() using the pure Java kernel. THRESH_BINARY
+	 * keeps values strictly above the minimum, hence the +1.
+	 */
+	public static void thresholdHSVJava(Mat rawRGBImage, Mat binaryDst) {
+		int width = rawRGBImage.width(), height = rawRGBImage.height();
+		byte[] bgr = new byte[width * height * 3];
+		byte[] mask = new byte[width * height];
+
+		rawRGBImage.get(0, 0, bgr);
+		TAPE_THRESHOLD.apply(bgr, mask, width, height);
+		binaryDst.create(height, width, CvType.CV_8UC1);
+		binaryDst.put(0, 0, mask);
+	}
+
 	private static void mapHullPoints(List<MatOfPoint> contours,
 			List<MatOfInt> hull, List<MatOfPoint> hullMOP) {
 
@@ -134,30 +159,62 @@ public class Program {
 		}
 	}
 
-	public static void scoreContours(Mat rawImage, List<SmartContour> contours){
+	/**
+	 * Pure Java replacement for thresholdHSV() + convexHull() that thresholds
+	 * and finds blobs in horizontal stripes on all cores, joining blobs that
+	 * cross stripe seams.
+	 * 
+	 * Blobs have no hull points, so left/right is decided by whether any mask
+	 * pixels lie in the quadrants above the blob's center. That's only checked
+	 * for blobs big enough to be scored.
+	 */
+	public static void tiledSegment(byte[] bgr, int width, int height, List<SmartContour> contourDst) {
+		byte[] mask = new byte[width * height];
+		int count = segmenter.segment(bgr, mask, width, height);
 
-		// Iterate through contours and score to see if they meet criteria
-		// BE CAREFULL WITH MIN AREA (different for 320x240)
-		SmartContour cLeft = null, cRight = null;
-		for(SmartContour c : contours){
-			if(c.getAspectRatio() > 0.80 && c.getAspectRatio() < 2.0 && c.getArea() > 1200){
-				if(c.isLeft()){
-					if(cLeft == null){
-						cLeft = c;
-					}
-				}
-				if(c.isRight()){
-					if(cRight == null){
-						cRight = c;
+		for (int i = 0; i < count; i++) {
+			int left = segmenter.getMinX(i), top = segmenter.getMinY(i);
+			int right = left + segmenter.getWidth(i) - 1, bottom = top + segmenter.getHeight(i) - 1;
+			if ((right - left) * (bottom - top) <= MIN_TARGET_AREA) {
+				continue;
+			}
+
+			double centerX = right - (right - left) / 2.0;
+			double centerY = bottom - (bottom - top) / 2.0;
+			boolean upperLeft = false, upperRight = false;
+			for (int y = top; y < centerY && !(upperLeft && upperRight); y++) {
+				for (int x = left; x <= right; x++) {
+					if (mask[y * width + x] != 0) {
+						upperLeft |= x < centerX;
+						upperRight |= x > centerX;
 					}
 				}
 			}
+
+			contourDst.add(new SmartContour(left, top, right, bottom, upperLeft, upperRight));
 		}
+	}
+
+	public static void scoreContours(Mat rawImage, List<SmartContour> contours){
+
+		int count = targetFinder.find(contours);
+		TargetFinder.Target[] targets = targetFinder.getTargets();
 		
 		Core.line(rawImage, new Point(rawImage.width()/4, 0), 
 				new Point(rawImage.width()/4, rawImage.height()), 
 				COLOR_BLUE, 5);
 		
+		// Every target but the best gets a thin outline and its rank
+		for(int i = 1; i < count; i++){
+			outlineRanked(rawImage, targets[i].getLeft(), i + 1);
+			outlineRanked(rawImage, targets[i].getRight(), i + 1);
+		}
+		
+		if(count == 0){
+			return;
+		}
+		SmartContour cLeft = targets[0].getLeft(), cRight = targets[0].getRight();
+		
 		if(cLeft != null){
 			Core.circle(rawImage, cLeft.getCenter(), 5, COLOR_GREEN, -5);
 			Core.rectangle(rawImage, cLeft.getTopLeft(), cLeft.getBottomRight(), COLOR_GREEN, 3);
@@ -171,6 +228,29 @@ public class Program {
 		}
 	}
 	
+	private static void outlineRanked(Mat rawImage, SmartContour c, int rank){
+		if(c != null){
+			Core.rectangle(rawImage, c.getTopLeft(), c.getBottomRight(), COLOR_BLUE, 1);
+			Core.putText(rawImage, Integer.toString(rank), c.getTopLeft(), 
+					Core.FONT_HERSHEY_COMPLEX_SMALL, 0.75, COLOR_BLUE);
+		}
+	}
+	
+	/**
+	 * Pairs the tape pieces in the contours and picks the best target, see
+	 * TargetFinder.
+	 * 
+	 * @return {left, right} of the best target, either of which may be null
+	 */
+	public static SmartContour[] findTargets(List<SmartContour> contours){
+		if(targetFinder.find(contours) == 0){
+			return new SmartContour[] { null, null };
+		}
+		
+		TargetFinder.Target best = targetFinder.getTargets()[0];
+		return new SmartContour[] { best.getLeft(), best.getRight() };
+	}
+	
 	public static void main(String[] args) {
 		// Load the native library.
 		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
@@ -41,6 +41,22 @@ public class SmartContour {
 		}
 	}
 	
+	/**
+	 * For blobs that have no contour points, only bounds and whether any of
+	 * their pixels are in the quadrants above their center.
+	 */
+	SmartContour(double left, double top, double right, double bottom, boolean upperLeft, boolean upperRight){
+		this.width = right - left;
+		this.height = bottom - top;
+		this.area = width * height;
+		this.aspectRatio = width / height;
+		this.center = new Point(right - (width / 2.0), bottom - (height / 2.0));
+		this.topLeft = new Point(left, top);
+		this.bottomRight = new Point(right, bottom);
+		this.isLeft = !upperLeft;
+		this.isRight = !upperRight;
+	}
+	
 	public boolean isLeft(){
 		return isLeft;
 	}
@@ -0,0 +1,216 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Pairs left and right tape pieces into targets and ranks them.
+ *
+ * Candidates are filtered once, sorted by center x and swept left to right.
+ * Left pieces wait in a window until they're too far left to pair with
+ * anything still to come, and a right piece pairs with the most level left
+ * piece in the window. Stacked pieces (one target above another) can't pair
+ * across rows that way. Pieces that don't pair still count as targets with
+ * one side missing, ranked below every pair. Apart from the sort that's one
+ * pass over the contours, times the few left pieces open at once.
+ *
+ * The ranked targets live in a fixed size array allocated up front and
+ * overwritten by every find().
+ */
+public class TargetFinder {
+
+	public static final int DEFAULT_CAPACITY = 8;
+
+	// Pieces further apart than this many left piece heights aren't one target
+	public static final double MAX_PAIR_GAP = 4.0;
+
+	// Nor are pieces whose centers are further apart vertically than this
+	// many piece heights
+	public static final double MAX_PAIR_OFFSET = 0.5;
+
+	private static final Comparator<SmartContour> BY_X = new Comparator<SmartContour>() {
+		@Override
+		public int compare(SmartContour a, SmartContour b) {
+			return Double.compare(a.getCenter().x, b.getCenter().x);
+		}
+	};
+
+	public static class Target {
+		SmartContour left, right;
+		double score;
+
+		/** The left piece, null if only a right piece was seen. */
+		public SmartContour getLeft() {
+			return left;
+		}
+
+		/** The right piece, null if only a left piece was seen. */
+		public SmartContour getRight() {
+			return right;
+		}
+
+		/**
+		 * 0-100 for how alike and level the two pieces are, 0 for a single
+		 * piece.
+		 */
+		public double getScore() {
+			return score;
+		}
+
+		public boolean isPair() {
+			return left != null && right != null;
+		}
+
+		double getArea() {
+			return (left != null ? left.getArea() : 0) + (right != null ? right.getArea() : 0);
+		}
+	}
+
+	private final Target[] targets;
+	private int count;
+	private SmartContour[] candidates = new SmartContour[32];
+	private SmartContour[] open = new SmartContour[8]; // left pieces waiting for a right piece
+
+	public TargetFinder() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public TargetFinder(int capacity) {
+		targets = new Target[capacity];
+		for (int i = 0; i < capacity; i++) {
+			targets[i] = new Target();
+		}
+	}
+
+	/**
+	 * Finds and ranks the targets among the contours.
+	 *
+	 * @return the number of targets, see getTargets()
+	 */
+	public int find(List<SmartContour> contours) {
+		count = 0;
+
+		// Filter once
+		// BE CAREFULL WITH MIN AREA (different for 320x240)
+		int n = 0;
+		for (SmartContour c : contours) {
+			if (c.getAspectRatio() > 0.80 && c.getAspectRatio() < 2.0 && c.getArea() > Program.MIN_TARGET_AREA
+					&& (c.isLeft() || c.isRight())) {
+				if (n == candidates.length) {
+					candidates = Arrays.copyOf(candidates, n * 2);
+				}
+				candidates[n++] = c;
+			}
+		}
+		Arrays.sort(candidates, 0, n, BY_X);
+
+		// Sweep left to right, a piece that could be either side closes an open
+		// left piece before it opens one itself
+		int openCount = 0;
+		for (int i = 0; i < n; i++) {
+			SmartContour c = candidates[i];
+
+			// Left pieces too far behind can't pair with this or anything after it
+			int kept = 0;
+			for (int j = 0; j < openCount; j++) {
+				if (c.getCenter().x - open[j].getCenter().x > MAX_PAIR_GAP * open[j].getHeight()) {
+					add(open[j], null);
+				} else {
+					open[kept++] = open[j];
+				}
+			}
+			openCount = kept;
+
+			int best = -1;
+			if (c.isRight()) {
+				for (int j = 0; j < openCount; j++) {
+					if (isLevel(open[j], c) && (best < 0 || offset(open[j], c) < offset(open[best], c))) {
+						best = j;
+					}
+				}
+			}
+
+			if (best >= 0) {
+				add(open[best], c);
+				openCount--;
+				System.arraycopy(open, best + 1, open, best, openCount - best);
+			} else if (c.isLeft()) {
+				if (openCount == open.length) {
+					open = Arrays.copyOf(open, openCount * 2);
+				}
+				open[openCount++] = c;
+			} else {
+				add(null, c);
+			}
+		}
+		for (int j = 0; j < openCount; j++) {
+			add(open[j], null);
+		}
+
+		Arrays.fill(candidates, 0, n, null);
+		Arrays.fill(open, null);
+		return count;
+	}
+
+	/**
+	 * Targets of the last find(), best first. Only the first find() results
+	 * are valid, the rest of the array is reused storage.
+	 */
+	public Target[] getTargets() {
+		return targets;
+	}
+
+	public int getTargetCount() {
+		return count;
+	}
+
+	private static boolean isLevel(SmartContour left, SmartContour right) {
+		return offset(left, right) <= MAX_PAIR_OFFSET * Math.max(left.getHeight(), right.getHeight());
+	}
+
+	private static double offset(SmartContour left, SmartContour right) {
+		return Math.abs(left.getCenter().y - right.getCenter().y);
+	}
+
+	// Scores the target and inserts it by rank, dropping the worst when full
+	private void add(SmartContour left, SmartContour right) {
+		double score = 0;
+		if (left != null && right != null) {
+			double maxHeight = Math.max(left.getHeight(), right.getHeight());
+			double similar = Math.min(left.getHeight(), right.getHeight()) / maxHeight;
+			double level = Math.max(0, 1 - Math.abs(left.getCenter().y - right.getCenter().y) / maxHeight);
+			score = 50 * similar + 50 * level;
+		}
+		double area = (left != null ? left.getArea() : 0) + (right != null ? right.getArea() : 0);
+
+		// Pairs before single pieces, then by score and size
+		int rank = count;
+		while (rank > 0 && isBetter(left != null && right != null, score, area, targets[rank - 1])) {
+			rank--;
+		}
+		if (rank == targets.length) {
+			return;
+		}
+
+		// Recycle the dropped (or unused) last target for the new one
+		Target target = targets[Math.min(count, targets.length - 1)];
+		for (int i = Math.min(count, targets.length - 1); i > rank; i--) {
+			targets[i] = targets[i - 1];
+		}
+		targets[rank] = target;
+		count = Math.min(count + 1, targets.length);
+
+		target.left = left;
+		target.right = right;
+		target.score = score;
+	}
+
+	private static boolean isBetter(boolean pair, double score, double area, Target than) {
+		if (pair != than.isPair()) {
+			return pair;
+		}
+		if (score != than.score) {
+			return score > than.score;
+		}
+		return area > than.getArea();
+	}
+}
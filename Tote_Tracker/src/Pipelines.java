@@ -0,0 +1,75 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.highgui.Highgui;
+import org.usfirst.frc.team79.robot.camera.BlobExtractor;
+
+/**
+ * The tote pipelines Regression runs.
+ */
+class Pipelines {
+
+	static List<Regression.Pipeline> all() {
+		List<Regression.Pipeline> pipelines = new ArrayList<Regression.Pipeline>();
+
+		pipelines.add(new Regression.Pipeline("opencv") {
+			Mat image;
+
+			void load(String path) {
+				image = Highgui.imread(path);
+			}
+
+			int[][] process() {
+				Mat binImg = new Mat();
+				Program.thresholdHSV(image, binImg);
+				return new int[][] { box(Program.findTote(binImg)) };
+			}
+		});
+
+		pipelines.add(new Regression.Pipeline("java-threshold") {
+			Mat image;
+
+			void load(String path) {
+				image = Highgui.imread(path);
+			}
+
+			int[][] process() {
+				Mat binImg = new Mat();
+				Program.thresholdHSVJava(image, binImg);
+				return new int[][] { box(Program.findTote(binImg)) };
+			}
+		});
+
+		pipelines.add(new Regression.Pipeline("java", false) {
+			BlobExtractor blobs = new BlobExtractor();
+			byte[] bgr, mask;
+			int width, height;
+
+			void load(String path) {
+				BufferedImage image = Regression.readBGR(path);
+				width = image.getWidth();
+				height = image.getHeight();
+				bgr = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+				mask = new byte[width * height];
+			}
+
+			int[][] process() {
+				Program.TOTE_THRESHOLD.apply(bgr, mask, width, height);
+				return new int[][] { box(Program.findToteBlobs(mask, width, height, blobs)) };
+			}
+		});
+
+		return pipelines;
+	}
+
+	static int[] box(Rect bound) {
+		if (bound == null || bound.width == 0 || bound.height == 0) {
+			return null;
+		}
+		return new int[] { bound.x, bound.y, bound.width, bound.height };
+	}
+}
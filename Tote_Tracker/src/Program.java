@@ -3,6 +3,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.opencv.core.Core;
+import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfPoint;
 import org.opencv.core.Point;
@@ -11,10 +12,21 @@ import org.opencv.core.Scalar;
 import org.opencv.highgui.Highgui;
 import org.opencv.imgproc.Imgproc;
 import org.opencv.imgproc.Moments;
+import org.usfirst.frc.team79.robot.camera.BlobExtractor;
+import org.usfirst.frc.team79.robot.camera.CameraGeometry;
+import org.usfirst.frc.team79.robot.camera.HsvThreshold;
 
 
 public class Program {
 
+	static final double MIN_TOTE_AREA = 1500; // pixels
+
+	// Tote yellow, same bounds as the inRange() call in thresholdHSV()
+	static final HsvThreshold TOTE_THRESHOLD = new HsvThreshold(20, 100, 100, 30, 255, 255);
+	
+	static final String CALIBRATION_PATH = "camera.properties";
+	static CameraGeometry geometry; // for the size of the last image
+
 	public static double processImage(String srcpath, String dstpath) {
 		
 		double startTime = System.currentTimeMillis();
@@ -22,37 +34,82 @@ public class Program {
 		// Load image
 		Mat rawImage = Highgui.imread(srcpath);
 		
-		// Threshold 
+		// Threshold
+		Mat binImg = new Mat();
+		thresholdHSV(rawImage, binImg);
+		
+		// Find the biggest tote
+		Rect largestBound = findTote(binImg);
+		Point center = new Point((largestBound.x + largestBound.width) - (largestBound.width/2.0),
+				(largestBound.y + largestBound.height) - (largestBound.height/2.0));
+		
+		//draw the final contour
+//		Imgproc.drawContours(rawImage, contours, i, new Scalar(255,0,255), 3);
+		Core.rectangle(rawImage, largestBound.tl(), largestBound.br(), new Scalar(255, 0, 255), 3);
+		Core.circle(rawImage, center, 10, new Scalar(255, 0, 255), -10);
+		
+		// remap the center from top left to center of bottom
+		center.x = (center.x - rawImage.width()/2.0);
+		center.y = -(center.y - rawImage.height()/2.0);
+		
+		// Calculate angle to center of box. The images come in all sizes and
+		// the lookup tables are a few floats per pixel, so only the current
+		// size's are kept
+		if (geometry == null || geometry.getWidth() != rawImage.width() || geometry.getHeight() != rawImage.height()) {
+			geometry = null; // let the old tables go before building the new ones
+			geometry = CameraGeometry.load(CALIBRATION_PATH, rawImage.width(), rawImage.height());
+		}
+		double xRot = geometry.getYaw(largestBound.x + largestBound.width/2.0, 
+				largestBound.y + largestBound.height/2.0);
+		String text = "WIDTH: " + Integer.toString(largestBound.width) + 
+				", HEIGHT: " + Integer.toString(largestBound.height) +
+				", X ROT: " + String.format("%.1f", xRot);
+		Core.putText(rawImage, text, new Point(20, rawImage.height()-40), Core.FONT_HERSHEY_COMPLEX_SMALL, 0.75, new Scalar(255,0,255));
+		
+		// Write output
+		Highgui.imwrite(dstpath, rawImage);
+		
+		return (System.currentTimeMillis() - startTime) / 1000.0;
+	}
+	
+	public static void thresholdHSV(Mat rawImage, Mat binImg) {
 		// Convert to HSV color space
 		Mat hsv = new Mat();
-		Mat binImg = new Mat();
 		Imgproc.cvtColor(rawImage, hsv, Imgproc.COLOR_BGR2HSV);
 		Core.inRange(hsv, new Scalar(20,100,100), new Scalar(30, 255, 255), binImg);
+	}
+	
+	/**
+	 * Same as thresholdHSV() using the pure Java kernel.
+	 */
+	public static void thresholdHSVJava(Mat rawImage, Mat binImg) {
+		int width = rawImage.width(), height = rawImage.height();
+		byte[] bgr = new byte[width * height * 3];
+		byte[] mask = new byte[width * height];
 		
-
+		rawImage.get(0, 0, bgr);
+		TOTE_THRESHOLD.apply(bgr, mask, width, height);
+		binImg.create(height, width, CvType.CV_8UC1);
+		binImg.put(0, 0, mask);
+	}
+	
+	/**
+	 * Returns the bounding box of the largest contour in the thresholded image,
+	 * or an empty Rect if there isn't one.
+	 */
+	public static Rect findTote(Mat binImg) {
 		// Find contours
 		List<MatOfPoint> contours = new ArrayList<MatOfPoint>();
-		Point center = new Point();
 		int largestIndex = 0;
 		double largestArea = 0;
 		Rect largestBound = new Rect();
 		
 		Imgproc.findContours(binImg, contours, new Mat(), Imgproc.RETR_TREE, Imgproc.CHAIN_APPROX_NONE);
 		
-		// Declare container for approximating polygons
-		List<MatOfPoint> contours_poly = new ArrayList<MatOfPoint>(contours.size());
-		for(MatOfPoint m : contours_poly){
-			m = new MatOfPoint();
-		}
-		
 		// Iterate through contours
-		int minArea = 500;
 		for(int i=0; i < contours.size(); i++){
-			if(Imgproc.contourArea(contours.get(i)) > 1500){
-				// Find contour with largest area
-				// and save off the center values
-				minArea = (int) Imgproc.contourArea(contours.get(i));
-				
+			double area = Imgproc.contourArea(contours.get(i));
+			if(area > MIN_TOTE_AREA){
 				Rect bound = Imgproc.boundingRect(contours.get(i));
 				
 //				if(bound.height*2 < bound.width){
@@ -60,8 +117,8 @@ public class Program {
 //				}
 
 				// Get biggest one
-				if(Imgproc.contourArea(contours.get(i)) > largestArea){
-					largestArea = Imgproc.contourArea(contours.get(i));
+				if(area > largestArea){
+					largestArea = area;
 					largestIndex = i;		
 					largestBound = bound;
 					
@@ -70,34 +127,32 @@ public class Program {
 //					Moments mu;
 //					mu = Imgproc.moments(contours.get(i), false);
 //					center = new Point(mu.get_m10()/mu.get_m00(), mu.get_m01()/mu.get_m00());
-					center = new Point((bound.x + bound.width) - (bound.width/2.0),
-							(bound.y + bound.height) - (bound.height/2.0));
 				}
 			}
 		}
 		
-		//draw the final contour
-//		Imgproc.drawContours(rawImage, contours, i, new Scalar(255,0,255), 3);
-		Core.rectangle(rawImage, largestBound.tl(), largestBound.br(), new Scalar(255, 0, 255), 3);
-		Core.circle(rawImage, center, 10, new Scalar(255, 0, 255), -10);
-		
-		// remap the center from top left to center of bottom
-		center.x = (center.x - rawImage.width()/2.0);
-		center.y = -(center.y - rawImage.height()/2.0);
-		
-		// Calculate angle to center of box
-		double FOV_X = 58;
-		double xRot = center.x/(rawImage.width()/2)*FOV_X/2;
-		String text = "WIDTH: " + Integer.toString(largestBound.width) + 
-				", HEIGHT: " + Integer.toString(largestBound.height);
-//		String text = "X ROT: " + Double.toString(xRot);
-		Core.putText(rawImage, text, new Point(20, rawImage.height()-40), Core.FONT_HERSHEY_COMPLEX_SMALL, 0.75, new Scalar(255,0,255));
-		
-		// Write output
-		Highgui.imwrite(dstpath, rawImage);
+		return largestBound;
+	}
+	
+	/**
+	 * Same as findTote() using the BlobExtractor on a mask from HsvThreshold,
+	 * no OpenCV calls involved.
+	 */
+	public static Rect findToteBlobs(byte[] mask, int width, int height, BlobExtractor blobs) {
+		int largest = -1;
+		int count = blobs.extract(mask, width, height);
+		for(int i=0; i < count; i++){
+			if(blobs.getArea(i) > MIN_TOTE_AREA && (largest < 0 || blobs.getArea(i) > blobs.getArea(largest))){
+				largest = i;
+			}
+		}
 		
-		return (System.currentTimeMillis() - startTime) / 1000.0;
-	}      
+		if(largest < 0){
+			return new Rect();
+		}
+		return new Rect(blobs.getMinX(largest), blobs.getMinY(largest),
+				blobs.getWidth(largest), blobs.getHeight(largest));
+	}
 	
 	public static void main(String[] args) {
 		// Load the native library.
@@ -0,0 +1,95 @@
+import java.io.File;
+import java.util.Arrays;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.highgui.Highgui;
+import org.usfirst.frc.team79.robot.camera.HsvThreshold;
+
+/**
+ * Times the OpenCV threshold stage against the pure Java one on every image
+ * in images/src and checks that both produce the same mask.
+ *
+ * "java" includes copying the frame out of and the mask back into a Mat,
+ * "kernel" is HsvThreshold alone on arrays, which is what a pipeline that
+ * never leaves Java pays.
+ *
+ * From the project directory: java ThresholdBenchmark [iterations]
+ */
+public class ThresholdBenchmark {
+
+	static final HsvThreshold KERNEL = Program.TOTE_THRESHOLD;
+
+	public static void main(String[] args) {
+		// Load the native library.
+		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+
+		int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 50;
+
+		File[] files = new File("images/src").listFiles();
+		Arrays.sort(files);
+
+		double opencvTotal = 0, javaTotal = 0, kernelTotal = 0;
+		long mismatched = 0, pixels = 0;
+
+		System.out.println(String.format("%-40s %10s %10s %10s", "FILE", "opencv ms", "java ms", "kernel ms"));
+		for (File f : files) {
+			Mat rawImage = Highgui.imread(f.getPath());
+			if (!f.isFile() || rawImage.empty()) {
+				continue;
+			}
+
+			int width = rawImage.width(), height = rawImage.height();
+			Mat opencvMask = new Mat();
+			Mat javaMask = new Mat();
+			byte[] bgr = new byte[width * height * 3];
+			byte[] mask = new byte[width * height];
+			rawImage.get(0, 0, bgr);
+
+			// Warm up both paths so the JIT has compiled the kernel
+			for (int i = 0; i < 5; i++) {
+				Program.thresholdHSV(rawImage, opencvMask);
+				Program.thresholdHSVJava(rawImage, javaMask);
+			}
+
+			long start = System.nanoTime();
+			for (int i = 0; i < iterations; i++) {
+				Program.thresholdHSV(rawImage, opencvMask);
+			}
+			double opencv = (System.nanoTime() - start) / 1e6 / iterations;
+
+			start = System.nanoTime();
+			for (int i = 0; i < iterations; i++) {
+				Program.thresholdHSVJava(rawImage, javaMask);
+			}
+			double java = (System.nanoTime() - start) / 1e6 / iterations;
+
+			start = System.nanoTime();
+			for (int i = 0; i < iterations; i++) {
+				KERNEL.apply(bgr, mask, width, height);
+			}
+			double kernel = (System.nanoTime() - start) / 1e6 / iterations;
+
+			// The masks only have to agree on zero/non-zero
+			byte[] expected = new byte[width * height];
+			opencvMask.get(0, 0, expected);
+			for (int i = 0; i < expected.length; i++) {
+				if ((expected[i] == 0) != (mask[i] == 0)) {
+					mismatched++;
+				}
+			}
+			pixels += expected.length;
+
+			System.out.println(String.format("%-40s %10.3f %10.3f %10.3f", f.getName(), opencv, java, kernel));
+			opencvTotal += opencv;
+			javaTotal += java;
+			kernelTotal += kernel;
+		}
+
+		System.out.println();
+		System.out.println(String.format("%-40s %10.3f %10.3f %10.3f", "TOTAL", opencvTotal, javaTotal, kernelTotal));
+		System.out.println(String.format("java is %.2fx, kernel alone %.2fx the speed of opencv",
+				opencvTotal / javaTotal, opencvTotal / kernelTotal));
+		System.out.println("Mismatched pixels: " + mismatched + " of " + pixels);
+	}
+}